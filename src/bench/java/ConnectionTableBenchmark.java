@@ -0,0 +1,77 @@
+
+import io.anuke.rudp.utils.EndpointMap;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+
+/**
+ * Measures the cost of finding the connection a datagram belongs to, for growing connection counts.
+ * The hashed lookup should stay flat apart from cache misses once the table outgrows the CPU caches,
+ * while the linear scan it replaced grows with the connection count.
+ */
+public class ConnectionTableBenchmark {
+
+	static final int[] CONNECTIONS = {10, 100, 1_000, 10_000, 50_000};
+	static final int LOOKUPS = 2_000_000;
+	static final int SCAN_LOOKUPS = 20_000;
+
+	public static void main(String[] args) throws UnknownHostException{
+		System.out.println("connections  hashed ns/lookup  scan ns/lookup");
+		for(int count : CONNECTIONS){
+			InetAddress[] addresses = new InetAddress[count];
+			int[] ports = new int[count];
+			EndpointMap<Integer> table = new EndpointMap<>();
+
+			for(int i = 0; i < count; i++){
+				addresses[i] = InetAddress.getByAddress(new byte[]{10, (byte) (i >> 16), (byte) (i >> 8), (byte) i});
+				ports[i] = 1024 + (i % 50_000);
+				table.put(addresses[i], ports[i], i);
+			}
+
+			//warmup
+			run(table, addresses, ports, LOOKUPS);
+
+			long start = System.nanoTime();
+			long found = run(table, addresses, ports, LOOKUPS);
+			long elapsed = System.nanoTime() - start;
+
+			if(found != LOOKUPS) throw new IllegalStateException("Missing connections: " + (LOOKUPS - found));
+
+			scan(addresses, ports, SCAN_LOOKUPS);
+			start = System.nanoTime();
+			scan(addresses, ports, SCAN_LOOKUPS);
+			long scanElapsed = System.nanoTime() - start;
+
+			System.out.printf("%11d %17.1f %15.1f%n", count, (double) elapsed / LOOKUPS, (double) scanElapsed / SCAN_LOOKUPS);
+		}
+	}
+
+	static long run(EndpointMap<Integer> table, InetAddress[] addresses, int[] ports, int lookups){
+		long found = 0;
+		int index = 0;
+		for(int i = 0; i < lookups; i++){
+			//stride through the table so lookups don't just hit the cache
+			index = (index + 7919) % addresses.length;
+			if(table.get(addresses[index], ports[index]) != null) found++;
+		}
+		return found;
+	}
+
+	/**The previous demultiplexing strategy: compare every connection's address bytes.*/
+	static long scan(InetAddress[] addresses, int[] ports, int lookups){
+		long found = 0;
+		int index = 0;
+		for(int i = 0; i < lookups; i++){
+			index = (index + 7919) % addresses.length;
+			byte[] target = addresses[index].getAddress();
+			for(int j = 0; j < addresses.length; j++){
+				if(Arrays.equals(addresses[j].getAddress(), target) && ports[j] == ports[index]){
+					found++;
+					break;
+				}
+			}
+		}
+		return found;
+	}
+}
@@ -0,0 +1,211 @@
+
+import io.anuke.rudp.handlers.PacketHandler;
+import io.anuke.rudp.rudp.ClientGroup;
+import io.anuke.rudp.rudp.RUDPClient;
+import io.anuke.rudp.rudp.RUDPServer;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Soak test driving thousands of connections from one process. Connections are spread over a few
+ * {@link ClientGroup}s, each with one receive thread and one traffic thread, and follow the same traffic profile.
+ * Without --host a server is started in this process and its throughput and CPU time are reported too;
+ * against a remote server only the client side is measured.
+ *
+ * Options, with their defaults:
+ *   --connections 1000   connections to open
+ *   --rate 20            messages per second per connection
+ *   --size 64            message payload in bytes
+ *   --reliable 0.5       share of messages sent reliably
+ *   --duration 30        seconds of traffic once connected
+ *   --groups <cores>     client groups the connections are spread over
+ *   --seed 1             seed of the reliable/unreliable choice
+ *   --host, --port       remote server to load instead of a local one
+ */
+public class LoadGenerator {
+
+	static final long TICK_MILLIS = 10;
+
+	//bucket bounds of the RTT histograms, in microseconds
+	static long[] bounds;
+
+	public static void main(String[] args) throws Exception{
+		Map<String, String> options = new HashMap<>();
+		for(int i = 0; i + 1 < args.length; i += 2){
+			if(!args[i].startsWith("--")) throw new IllegalArgumentException("Unknown argument " + args[i]);
+			options.put(args[i].substring(2), args[i + 1]);
+		}
+		int connections = Integer.parseInt(options.getOrDefault("connections", "1000"));
+		double rate = Double.parseDouble(options.getOrDefault("rate", "20"));
+		int size = Integer.parseInt(options.getOrDefault("size", "64"));
+		double reliable = Double.parseDouble(options.getOrDefault("reliable", "0.5"));
+		int duration = Integer.parseInt(options.getOrDefault("duration", "30"));
+		int groupCount = Integer.parseInt(options.getOrDefault("groups", String.valueOf(Runtime.getRuntime().availableProcessors())));
+		long seed = Long.parseLong(options.getOrDefault("seed", "1"));
+
+		RUDPServer server = null;
+		LongAdder messages = new LongAdder();
+		InetAddress address;
+		int port;
+		if(options.containsKey("host")){
+			address = InetAddress.getByName(options.get("host"));
+			port = Integer.parseInt(options.getOrDefault("port", "7000"));
+		}else{
+			server = new RUDPServer(0);
+			server.setPacketHandler(new PacketHandler(){
+				@Override
+				public void onPacketReceived(int channel, ByteBuffer data, boolean reliable){
+					messages.increment();
+				}
+			});
+			server.start();
+			address = InetAddress.getLoopbackAddress();
+			port = server.getPort();
+		}
+
+		ClientGroup[] groups = new ClientGroup[groupCount];
+		for(int i = 0; i < groupCount; i++) groups[i] = new ClientGroup();
+		bounds = groups[0].getMetrics().getRtt().getBounds();
+
+		RUDPClient[] clients = new RUDPClient[connections];
+		long connectStart = System.nanoTime();
+		for(int i = 0; i < connections; i++){
+			clients[i] = new RUDPClient(address, port, groups[i % groupCount]);
+			clients[i].connect();
+			if((i + 1) % 1000 == 0) System.out.println("connected " + (i + 1));
+		}
+		System.out.printf("%d connections in %.1f s, %d groups, %.0f msg/s each, %d bytes, %.0f%% reliable%n",
+			connections, (System.nanoTime() - connectStart) / 1e9, groupCount, rate, size, reliable * 100);
+
+		//one traffic thread per group, driving the connections of that group
+		long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(duration);
+		Thread[] drivers = new Thread[groupCount];
+		for(int g = 0; g < groupCount; g++){
+			int group = g;
+			drivers[g] = new Thread(() -> drive(clients, group, groupCount, rate, size, reliable, new Random(seed + group), end), "LoadGenerator traffic " + g);
+			drivers[g].start();
+		}
+
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		System.out.println("   s  server msg/s  server KB/s  server CPU us/conn/s  client sent/s  rtt p50 ms  rtt p99 ms  connected");
+		long[] lastRtt = rttCounts(groups);
+		long lastMessages = 0, lastBytes = 0, lastSent = 0, lastCpu = serverCpu(threads);
+		long last = System.nanoTime(), start = last;
+		long totalCpu = 0;
+		while(System.nanoTime() < end){
+			Thread.sleep(1000);
+			long now = System.nanoTime();
+			double elapsed = (now - last) / 1e9;
+			last = now;
+
+			long[] rtt = rttCounts(groups);
+			long[] interval = new long[rtt.length];
+			for(int i = 0; i < rtt.length; i++) interval[i] = rtt[i] - lastRtt[i];
+			lastRtt = rtt;
+
+			long sent = 0;
+			for(ClientGroup group : groups) sent += group.getMetrics().getPacketsSent();
+			long connected = 0;
+			for(RUDPClient client : clients) if(client.isConnected()) connected++;
+
+			String serverColumns = String.format("%12s %12s %20s", "-", "-", "-");
+			if(server != null){
+				long received = messages.sum(), bytes = server.getMetrics().getBytesReceived(), cpu = serverCpu(threads);
+				totalCpu += cpu - lastCpu;
+				serverColumns = String.format("%12.0f %12.0f %20.1f", (received - lastMessages) / elapsed, (bytes - lastBytes) / elapsed / 1024,
+					(cpu - lastCpu) / 1000.0 / connections / elapsed);
+				lastMessages = received;
+				lastBytes = bytes;
+				lastCpu = cpu;
+			}
+			System.out.printf("%4d %s %14.0f %11s %11s %10d%n", (now - start) / 1_000_000_000L, serverColumns, (sent - lastSent) / elapsed,
+				quantile(interval, 0.5), quantile(interval, 0.99), connected);
+			lastSent = sent;
+		}
+		for(Thread driver : drivers) driver.join();
+
+		long[] rtt = rttCounts(groups);
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.printf("rtt over the run: p50 %s ms, p99 %s ms, p99.9 %s ms%n", quantile(rtt, 0.5), quantile(rtt, 0.99), quantile(rtt, 0.999));
+		if(server != null){
+			System.out.printf("server: %.0f msg/s, %.1f us CPU per connection per second, %d retransmissions, %d duplicates%n",
+				messages.sum() / seconds, totalCpu / 1000.0 / connections / seconds, server.getMetrics().getRetransmissions(), server.getMetrics().getDuplicates());
+		}
+
+		for(RUDPClient client : clients) client.disconnect();
+		for(ClientGroup group : groups) group.close();
+		if(server != null) server.stop();
+		System.exit(0);
+	}
+
+	static void drive(RUDPClient[] clients, int group, int groups, double rate, int size, double reliable, Random random, long end){
+		byte[] payload = new byte[size];
+		double[] credit = new double[clients.length];
+		long last = System.nanoTime();
+		while(true){
+			long now = System.nanoTime();
+			if(now - end >= 0) return;
+			double elapsed = (now - last) / 1e9;
+			last = now;
+
+			for(int i = group; i < clients.length; i += groups){
+				RUDPClient client = clients[i];
+				if(!client.isConnected()) continue;
+				credit[i] += rate * elapsed;
+				while(credit[i] >= 1){
+					credit[i]--;
+					if(random.nextDouble() < reliable) client.sendReliablePacket(payload);
+					else client.sendPacket(payload);
+				}
+			}
+			try{
+				Thread.sleep(TICK_MILLIS);
+			}catch(InterruptedException e){
+				return;
+			}
+		}
+	}
+
+	static long[] rttCounts(ClientGroup[] groups){
+		long[] counts = null;
+		for(ClientGroup group : groups){
+			long[] groupCounts = group.getMetrics().getRtt().getCounts();
+			if(counts == null) counts = groupCounts;
+			else for(int i = 0; i < counts.length; i++) counts[i] += groupCounts[i];
+		}
+		return counts;
+	}
+
+	/**@return upper bound in milliseconds of the RTT bucket holding the quantile*/
+	static String quantile(long[] counts, double quantile){
+		long total = 0;
+		for(long count : counts) total += count;
+		if(total == 0) return "-";
+		long target = (long) Math.ceil(quantile * total), seen = 0;
+		for(int i = 0; i < bounds.length; i++){
+			seen += counts[i];
+			if(seen >= target) return String.valueOf(bounds[i] / 1000.0);
+		}
+		return ">" + bounds[bounds.length - 1] / 1000.0;
+	}
+
+	/**@return CPU nanoseconds used so far by the threads of the local server*/
+	static long serverCpu(ThreadMXBean threads){
+		long cpu = 0;
+		for(ThreadInfo info : threads.getThreadInfo(threads.getAllThreadIds())){
+			if(info == null || !info.getThreadName().startsWith("RUDPServer")) continue;
+			long time = threads.getThreadCpuTime(info.getThreadId());
+			if(time > 0) cpu += time;
+		}
+		return cpu;
+	}
+}
@@ -0,0 +1,90 @@
+
+import io.anuke.rudp.handlers.PacketHandler;
+import io.anuke.rudp.rudp.RUDPClient;
+import io.anuke.rudp.rudp.RUDPServer;
+import io.anuke.rudp.transport.TransportType;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures how many unreliable datagrams a server receives over loopback as the number of SO_REUSEPORT shards grows.
+ * Every connection floods the server from its own socket, the kernel spreads them over the shards by source port,
+ * so throughput should scale with the shard count until the senders or the cores run out.
+ * Usage: ShardedServerBenchmark [connections] [seconds] [DATAGRAM_SOCKET|DATAGRAM_CHANNEL]
+ */
+public class ShardedServerBenchmark {
+
+	static final int[] SHARDS = {1, 2, 4, 8};
+	static final int PAYLOAD = 64;
+
+	public static void main(String[] args) throws Exception{
+		int connections = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+		int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+		TransportType transport = args.length > 2 ? TransportType.valueOf(args[2]) : TransportType.DATAGRAM_CHANNEL;
+		int cores = Runtime.getRuntime().availableProcessors();
+
+		if(!TransportType.isReusePortSupported()){
+			System.out.println("SO_REUSEPORT is not supported here, only running 1 shard");
+		}
+
+		System.out.println("shards  received/s  sent/s  (" + connections + " connections, " + cores + " cores, " + transport + ")");
+		for(int shards : SHARDS){
+			if(shards > 1 && (!TransportType.isReusePortSupported() || shards > cores)) break;
+			run(shards, connections, seconds, transport);
+		}
+	}
+
+	static void run(int shards, int connections, int seconds, TransportType transport) throws Exception{
+		LongAdder received = new LongAdder();
+		RUDPServer server = new RUDPServer(0, transport, shards);
+		server.setPacketHandler(new PacketHandler(){
+			@Override
+			public void onPacketReceived(byte[] data, boolean reliable){
+				received.increment();
+			}
+		});
+		server.start();
+
+		List<RUDPClient> clients = new ArrayList<>();
+		for(int i = 0; i < connections; i++){
+			RUDPClient client = new RUDPClient(InetAddress.getLoopbackAddress(), server.getPort(), transport);
+			client.connect();
+			clients.add(client);
+		}
+
+		//one sender per core, each cycling over its share of the connections
+		int senders = Math.min(connections, Runtime.getRuntime().availableProcessors());
+		LongAdder sent = new LongAdder();
+		long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+		List<Thread> threads = new ArrayList<>();
+		for(int t = 0; t < senders; t++){
+			int first = t;
+			Thread thread = new Thread(() -> {
+				byte[] payload = new byte[PAYLOAD];
+				while(System.nanoTime() < end){
+					for(int i = first; i < connections; i += senders){
+						clients.get(i).sendPacket(payload);
+					}
+					sent.add((connections - first + senders - 1) / senders);
+				}
+			}, "Benchmark sender " + t);
+			threads.add(thread);
+		}
+
+		//warmup is the first second, only the rest is measured
+		threads.forEach(Thread::start);
+		Thread.sleep(1000);
+		long startReceived = received.sum(), startSent = sent.sum(), start = System.nanoTime();
+		for(Thread thread : threads) thread.join();
+		double elapsed = (System.nanoTime() - start) / 1e9;
+
+		System.out.printf("%6d %11.0f %7.0f%n", shards, (received.sum() - startReceived) / elapsed, (sent.sum() - startSent) / elapsed);
+
+		for(RUDPClient client : clients) client.disconnect();
+		server.stop();
+	}
+}
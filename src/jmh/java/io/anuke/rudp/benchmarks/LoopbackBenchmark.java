@@ -0,0 +1,120 @@
+package io.anuke.rudp.benchmarks;
+
+import io.anuke.rudp.handlers.PacketHandler;
+import io.anuke.rudp.rudp.RUDPClient;
+import io.anuke.rudp.rudp.RUDPServer;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Reliable messages echoed by a server over loopback. roundTrip samples the latency of one message at a time,
+ * cycling through the connections, for the percentiles; burst sends one message on every connection and waits
+ * for all the echoes, for messages per second.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xss256k")
+public class LoopbackBenchmark {
+
+	@Param({"1", "100", "1000"})
+	int connections;
+
+	RUDPServer server;
+	RUDPClient[] clients;
+	EchoCounter[] echoes;
+	byte[] payload = new byte[64];
+	int next;
+
+	/**Counts the echoes received by one client, only written by its receive thread.*/
+	static class EchoCounter implements PacketHandler {
+		volatile long received;
+
+		@Override
+		public void onPacketReceived(int channel, ByteBuffer data, boolean reliable){
+			received++;
+		}
+	}
+
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Messages {
+		public long messages;
+
+		@Setup(Level.Iteration)
+		public void reset(){
+			messages = 0;
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException, InterruptedException{
+		server = new RUDPServer(0);
+		server.start();
+
+		clients = new RUDPClient[connections];
+		echoes = new EchoCounter[connections];
+		for(int i = 0; i < connections; i++){
+			echoes[i] = new EchoCounter();
+			clients[i] = new RUDPClient(InetAddress.getLoopbackAddress(), server.getPort());
+			clients[i].setPacketHandler(echoes[i]);
+			clients[i].connect();
+		}
+
+		long end = System.currentTimeMillis() + 30_000;
+		while(server.getConnectedClients().size() < connections){
+			if(System.currentTimeMillis() > end) throw new IllegalStateException("Only " + server.getConnectedClients().size() + " connections established");
+			Thread.sleep(10);
+		}
+		//each server connection sends what it receives back to its own client
+		for(RUDPClient connection : server.getConnectedClients()){
+			connection.setPacketHandler(new PacketHandler(){
+				@Override
+				public void onPacketReceived(int channel, ByteBuffer data, boolean reliable){
+					connection.send(channel, data);
+				}
+			});
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown(){
+		for(RUDPClient client : clients){
+			if(client != null) client.disconnect();
+		}
+		server.stop();
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SampleTime)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public long roundTrip(){
+		int index = next;
+		next = (next + 1) % connections;
+		EchoCounter echo = echoes[index];
+		long expected = echo.received + 1;
+		clients[index].sendReliablePacket(payload);
+		while(echo.received < expected) Thread.yield();
+		return expected;
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	public void burst(Messages messages){
+		long[] expected = new long[connections];
+		for(int i = 0; i < connections; i++){
+			expected[i] = echoes[i].received + 1;
+			clients[i].sendReliablePacket(payload);
+		}
+		for(int i = 0; i < connections; i++){
+			while(echoes[i].received < expected[i]) Thread.yield();
+		}
+		messages.messages += connections;
+	}
+}
@@ -0,0 +1,63 @@
+package io.anuke.rudp.benchmarks;
+
+import io.anuke.rudp.utils.NetUtils;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**Header field encoding and decoding, done several times for every packet sent and received.*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NetUtilsBenchmark {
+
+	byte[] buffer = new byte[16];
+	short shortValue = 12345;
+	int intValue = 0x12345678;
+	long longValue = 0x123456789ABCDEFL;
+
+	@Benchmark
+	public byte[] writeShort(){
+		NetUtils.writeBytes(buffer, 1, shortValue);
+		return buffer;
+	}
+
+	@Benchmark
+	public byte[] writeInt(){
+		NetUtils.writeBytes(buffer, 3, intValue);
+		return buffer;
+	}
+
+	@Benchmark
+	public byte[] writeLong(){
+		NetUtils.writeBytes(buffer, 7, longValue);
+		return buffer;
+	}
+
+	@Benchmark
+	public short readShort(){
+		return NetUtils.asShort(buffer, 1);
+	}
+
+	@Benchmark
+	public int readInt(){
+		return NetUtils.asInt(buffer, 3);
+	}
+
+	@Benchmark
+	public long readLong(){
+		return NetUtils.asLong(buffer, 7);
+	}
+
+	/**The ack fields stamped into every header.*/
+	@Benchmark
+	public short writeAckHeader(){
+		NetUtils.writeBytes(buffer, 3, shortValue);
+		NetUtils.writeBytes(buffer, 5, intValue);
+		return NetUtils.asShort(buffer, 3);
+	}
+}
@@ -0,0 +1,147 @@
+package io.anuke.rudp.rudp;
+
+import io.anuke.rudp.RUDPConstants;
+import io.anuke.rudp.RUDPConstants.PacketType;
+import io.anuke.rudp.handlers.OrderedPacketHandler;
+import io.anuke.rudp.transport.Transport;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Receive path of a server connection without any socket: packets are handed straight to
+ * {@link RUDPClient#handlePacket(ByteBuffer)} and everything the connection sends goes to a transport that drops it.
+ * Lives in the rudp package to reach the package-private receive path.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PacketHandlingBenchmark {
+
+	static final int PAYLOAD = 32;
+	static final int REORDER_GROUP = 8;
+	//order in which each group of 8 consecutive messages arrives
+	static final int[] REORDERING = {1, 0, 3, 2, 7, 4, 6, 5};
+
+	/**Drops every datagram, remembering the seq of the last reliable one.*/
+	static class NullTransport implements Transport {
+		volatile short lastReliable;
+
+		@Override
+		public void send(byte[] data, int offset, int length, InetSocketAddress endpoint){
+			if(data[offset] == PacketType.RELIABLE) lastReliable = (short) (((data[offset + 1] & 0xFF) << 8) | (data[offset + 2] & 0xFF));
+		}
+
+		@Override
+		public void send(ByteBuffer data, InetSocketAddress endpoint){
+			if(data.get(data.position()) == PacketType.RELIABLE) lastReliable = data.getShort(data.position() + 1);
+		}
+
+		@Override
+		public void receive(PacketReceiver receiver){}
+
+		@Override
+		public void setTimeout(int timeout){}
+
+		@Override
+		public int getLocalPort(){
+			return 0;
+		}
+
+		@Override
+		public boolean isClosed(){
+			return false;
+		}
+
+		@Override
+		public void close(){}
+	}
+
+	static class CountingHandler extends OrderedPacketHandler {
+		long received;
+
+		@Override
+		public void handlePacket(byte[] data){
+			received += data.length;
+		}
+	}
+
+	RUDPServer server;
+	RUDPClient connection;
+	NullTransport transport;
+	CountingHandler handler;
+	ByteBuffer packet = ByteBuffer.allocate(RUDPConstants.PACKET_HEADER_SIZE + RUDPConstants.MESSAGE_HEADER_SIZE + PAYLOAD);
+	ByteBuffer ack = ByteBuffer.allocate(RUDPConstants.PACKET_HEADER_SIZE);
+	byte[] payload = new byte[PAYLOAD];
+	short reliableSeq, unreliableSeq, channelSeq;
+
+	@Setup
+	public void setup() throws IOException{
+		//only started for its timer, which runs the ack and retransmission tasks
+		server = new RUDPServer(0);
+		server.start();
+		transport = new NullTransport();
+		handler = new CountingHandler();
+		connection = new RUDPClient(InetAddress.getLoopbackAddress(), 1, server, transport, handler);
+		connection.state = ConnectionState.STATE_CONNECTED;
+	}
+
+	@TearDown
+	public void tearDown(){
+		server.stop();
+	}
+
+	/**In order reliable message on the default ordered channel.*/
+	@Benchmark
+	public long reliable(){
+		message(PacketType.RELIABLE, reliableSeq++, channelSeq++);
+		connection.handlePacket(packet);
+		return handler.received;
+	}
+
+	@Benchmark
+	public long unreliable(){
+		message(PacketType.UNRELIABLE, unreliableSeq, unreliableSeq++);
+		connection.handlePacket(packet);
+		return handler.received;
+	}
+
+	/**Sends a reliable message then receives the ack removing it from the in-flight window.*/
+	@Benchmark
+	public int sendAndAck(){
+		connection.sendReliablePacket(payload);
+		ack.clear();
+		ack.put(PacketType.RELY).putShort(unreliableSeq++).putShort(transport.lastReliable).putInt(0).putInt(0).putInt(0).flip();
+		connection.handlePacket(ack);
+		return connection.getPacketsInFlight();
+	}
+
+	/**Reliable messages arriving out of order, buffered by the ordered channel until the gap is filled.*/
+	@Benchmark
+	@OperationsPerInvocation(REORDER_GROUP)
+	public long reordered(){
+		short first = reliableSeq, firstChannel = channelSeq;
+		for(int i : REORDERING){
+			message(PacketType.RELIABLE, (short) (first + i), (short) (firstChannel + i));
+			connection.handlePacket(packet);
+		}
+		reliableSeq += REORDER_GROUP;
+		channelSeq += REORDER_GROUP;
+		return handler.received;
+	}
+
+	void message(byte type, short seq, short channelSeq){
+		packet.clear();
+		//nothing in flight to acknowledge: latest -1 with no bits
+		packet.put(type).putShort(seq).putShort((short) -1).putInt(0).putInt(0).putInt(0);
+		packet.put((byte) 0).putShort(channelSeq).put(payload).flip();
+	}
+}
@@ -2,10 +2,20 @@ package io.anuke.rudp;
 
 public final class RUDPConstants{
     public static final int RECEIVE_MAX_SIZE = 4096;
+
+    /**
+     * Maximum number of idle direct buffers kept by a channel transport
+     */
+    public static final int BUFFER_POOL_SIZE = 64;
+
+    /**
+     * Default number of datagrams waiting in an outbound queue before new ones are dropped
+     */
+    public static final int OUTBOUND_QUEUE_SIZE = 1024;
     public static final int CLIENT_TIMEOUT_TIME = 5000;
 
     /**
-     * maximum time between ping packets before disconnecting client
+     * maximum time without receiving anything before disconnecting, an idle remote still sends keep-alives
      */
     public static final long CLIENT_TIMEOUT_TIME_MILLISECONDS = 5000L;
 
@@ -15,13 +25,178 @@ public final class RUDPConstants{
     public static final long PACKET_TIMEOUT_TIME_MILLISECONDS = 5000L;
 
     /**
-     * Packet's seq store time after being received (used to avoid duplicate packets)
+     * Reliable seqs remembered behind the highest one received to detect duplicates, a power of two
+     * larger than SEND_WINDOW. Older seqs count as duplicates and are neither delivered nor acked.
+     */
+    public static final int RECEIVE_WINDOW = 1024;
+
+    /**
+     * Resolution and bucket count of the timing wheels scheduling retransmissions
+     */
+    public static final long TIMER_TICK_MILLISECONDS = 10L;
+    public static final int TIMER_WHEEL_SIZE = 512;
+
+    /**
+     * Header of every packet once connected: type, seq, latest reliable seq received, the 32 bit ack field,
+     * the send time in microseconds and the echo of the latest send time received from the remote
+     */
+    public static final int PACKET_HEADER_SIZE = 17;
+
+    /**
+     * Time a received reliable packet may wait for outgoing traffic to carry its ack before a standalone ack is sent
+     */
+    public static final long ACK_DELAY_MILLISECONDS = 10L;
+
+    /**
+     * Unacknowledged reliable packets after which an ack is sent right away, well before the ack field overflows
+     */
+    public static final int ACK_IMMEDIATE_THRESHOLD = 16;
+
+    /**
+     * Retransmission timeout bounds (RFC 6298). The initial value is used until the first round trip sample.
+     */
+    public static final long RTO_INITIAL_MILLISECONDS = 1000L;
+    public static final long RTO_MIN_MILLISECONDS = 50L;
+    public static final long RTO_MAX_MILLISECONDS = 3000L;
+
+    /**
+     * Congestion window bounds, in reliable packets in flight
+     */
+    public static final int CONGESTION_INITIAL_WINDOW = 16;
+    public static final int CONGESTION_MIN_WINDOW = 2;
+    public static final int CONGESTION_MAX_WINDOW = 256;
+
+    /**
+     * Span of reliable seqs that may be in flight, from the oldest unacknowledged one. A power of two
+     * above CONGESTION_MAX_WINDOW, and no larger than the remote's receive and reorder windows.
+     */
+    public static final int SEND_WINDOW = 512;
+
+    /**
+     * Queueing delay the delay-based congestion controller aims for
+     */
+    public static final long CONGESTION_DELAY_TARGET_MILLISECONDS = 25L;
+
+    /**
+     * Reliable packets that may leave back to back before pacing spreads them over the round trip
+     */
+    public static final int PACING_BURST = 8;
+
+    /**
+     * Datagram size (UDP payload) assumed until a probe makes it past, safe on any IPv4 path
+     */
+    public static final int MTU_MIN = 548;
+
+    /**
+     * Datagram sizes probed once connected, the largest acknowledged one becomes the fragment size
+     */
+    public static final int[] MTU_PROBE_SIZES = {1200, 1280, 1400, 1452, 1472};
+
+    /**
+     * Times each probe size is sent before giving up on it, one retransmission timeout apart
+     */
+    public static final int MTU_PROBE_ATTEMPTS = 3;
+
+    /**
+     * Fragment index and count following the header of every fragment
+     */
+    public static final int FRAGMENT_HEADER_SIZE = 4;
+
+    /**
+     * Largest reliable message accepted for fragmentation
+     */
+    public static final int MAX_MESSAGE_SIZE = 1 << 20;
+
+    /**
+     * Most fragments a message may have: MAX_MESSAGE_SIZE cut at the fragment size of MTU_MIN. Larger counts are refused
      */
-    public static final long PACKET_STORE_TIME_MILLISECONDS = 2000L;
+    public static final int FRAGMENT_MAX_COUNT = (MAX_MESSAGE_SIZE + MTU_MIN - PACKET_HEADER_SIZE - FRAGMENT_HEADER_SIZE - 1)
+        / (MTU_MIN - PACKET_HEADER_SIZE - FRAGMENT_HEADER_SIZE);
+
+    /**
+     * Incomplete fragmented messages kept per connection, the oldest is dropped past it. Each spans two seqs or more
+     * and overlaps the SEND_WINDOW of the remote, so no more can be waiting for fragments still on the way.
+     */
+    public static final int FRAGMENT_MAX_MESSAGES = SEND_WINDOW / 2 + 1;
+
+    /**
+     * Channel and channel seq preceding the payload of every reliable and unreliable message
+     */
+    public static final int MESSAGE_HEADER_SIZE = 3;
+    public static final int MAX_CHANNELS = 64;
+
+    /**
+     * Bit of the channel byte set on messages whose payload is deflated, once both sides agreed on compression
+     */
+    public static final int COMPRESSED_MESSAGE_FLAG = 0x80;
+
+    /**
+     * Handshake flag offering compression, followed by the id of the preset dictionary
+     */
+    public static final int HANDSHAKE_COMPRESSION = 1;
+
+    /**
+     * Default payload size below which messages are sent uncompressed
+     */
+    public static final int COMPRESSION_THRESHOLD = 16;
+
+    /**
+     * Messages an ordered channel buffers ahead of a missing one. A power of two no smaller than SEND_WINDOW,
+     * so a sender never overruns it.
+     */
+    public static final int REORDER_WINDOW = 512;
+
+    /**
+     * Payload length, type and seq preceding every packet packed in a batch
+     */
+    public static final int BATCH_ENTRY_HEADER_SIZE = 5;
+
+    /**
+     * Default time a batch may collect packets before it is sent on its own
+     */
+    public static final long BATCH_FLUSH_DELAY_MILLISECONDS = 10L;
+
+    /**
+     * Snapshots kept per connection and direction as baselines of the next ones, a power of two
+     */
+    public static final int SNAPSHOT_HISTORY = 32;
+
+    /**
+     * Id of the snapshot and of its baseline, preceding the delta of every snapshot
+     */
+    public static final int SNAPSHOT_HEADER_SIZE = 4;
+
+    /**
+     * Handshake: type, version major and minor, compression flags and dictionary id. The cookie follows once received.
+     */
+    public static final int HANDSHAKE_SIZE = 14;
+
+    /**
+     * Token handed out by the server in reply to a first handshake and echoed by the client: issue time and truncated HMAC
+     */
+    public static final int HANDSHAKE_COOKIE_SIZE = 20;
+
+    /**
+     * Shortest handshake the server answers, the first one is padded to it so no reply is larger than its request
+     */
+    public static final int HANDSHAKE_MIN_SIZE = 1 + HANDSHAKE_COOKIE_SIZE;
+
+    /**
+     * Interval at which a client sends its handshake again while unanswered, until CLIENT_TIMEOUT_TIME
+     */
+    public static final int HANDSHAKE_RESEND_MILLISECONDS = 250;
+
+    /**
+     * Time a client may take to echo a handshake cookie
+     */
+    public static final long HANDSHAKE_COOKIE_LIFETIME_MILLISECONDS = 10_000L;
 
     public static final int VERSION_MAJOR = 1;
-    public static final int VERSION_MINOR = 0;
+    public static final int VERSION_MINOR = 6;
 
+    /**
+     * Time without sending anything after which a connection sends a keep-alive
+     */
     public static final long PING_INTERVAL = 1000;
 
     private static byte createPacketType(byte id, boolean reliable){
@@ -43,11 +218,19 @@ public final class RUDPConstants{
         public static final byte HANDSHAKE_OK = createPacketType((byte) 3, false);
         public static final byte HANDSHAKE_ERROR = createPacketType((byte) 4, false);
         public static final byte PING_REQUEST = createPacketType((byte) 5, false);
+        //no longer sent, the round trip is measured with the timestamps of every packet header
         public static final byte PING_RESPONSE = createPacketType((byte) 6, false);
         public static final byte DISCONNECT_FROM_CLIENT = createPacketType((byte) 7, false);
         public static final byte DISCONNECT_FROM_SERVER = createPacketType((byte) 8, true);
         public static final byte RELY = createPacketType((byte) 9, false);
         public static final byte PACKETSSTATS_REQUEST = createPacketType((byte) 10, false);
         public static final byte PACKETSSTATS_RESPONSE = createPacketType((byte) 11, false);
+        public static final byte FRAGMENT = createPacketType((byte) 12, true);
+        public static final byte MTU_PROBE = createPacketType((byte) 13, false);
+        public static final byte MTU_PROBE_ACK = createPacketType((byte) 14, false);
+        public static final byte BATCH = createPacketType((byte) 15, false);
+        public static final byte SNAPSHOT = createPacketType((byte) 16, false);
+        public static final byte SNAPSHOT_ACK = createPacketType((byte) 17, false);
+        public static final byte HANDSHAKE_COOKIE = createPacketType((byte) 18, false);
     }
 }
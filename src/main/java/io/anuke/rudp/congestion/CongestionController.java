@@ -0,0 +1,22 @@
+package io.anuke.rudp.congestion;
+
+/**
+ * Decides how many reliable packets a connection may have in flight.
+ * Acks are reported from the receiving thread and losses from the timer thread, so implementations must be thread safe.
+ */
+public interface CongestionController{
+
+    /**@return number of reliable packets allowed in flight*/
+    int getWindow();
+
+    /**
+     * Called for every acknowledged packet.
+     *
+     * @param rtt round trip of the packet in nanoseconds, or -1 if it was resent and the sample is ambiguous
+     * @param now System.nanoTime() of the ack
+     */
+    void onAck(long rtt, long now);
+
+    /**Called when a packet timed out and is about to be resent.*/
+    void onLoss(long now);
+}
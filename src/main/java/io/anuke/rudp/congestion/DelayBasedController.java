@@ -0,0 +1,72 @@
+package io.anuke.rudp.congestion;
+
+import io.anuke.rudp.RUDPConstants;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LEDBAT-style controller: the window grows while the measured queueing delay (round trip above the lowest one
+ * seen) stays under a target, and shrinks in proportion once it goes over. It backs off before the bottleneck
+ * buffer fills, trading a little throughput for much lower latency. Losses still halve the window.
+ */
+public class DelayBasedController implements CongestionController{
+    /**The base round trip is forgotten after this long so route changes are picked up.*/
+    private static final long BASE_HISTORY = TimeUnit.SECONDS.toNanos(30);
+
+    private final int minWindow, maxWindow;
+    private final long target;
+    private double window;
+    private long baseRtt = Long.MAX_VALUE, baseRttTime, lastDecrease, lastRtt;
+    private boolean slowStart = true;
+
+    public DelayBasedController(){
+        this(TimeUnit.MILLISECONDS.toNanos(RUDPConstants.CONGESTION_DELAY_TARGET_MILLISECONDS));
+    }
+
+    /**@param target queueing delay to aim for, in nanoseconds*/
+    public DelayBasedController(long target){
+        this(target, RUDPConstants.CONGESTION_INITIAL_WINDOW, RUDPConstants.CONGESTION_MIN_WINDOW, RUDPConstants.CONGESTION_MAX_WINDOW);
+    }
+
+    public DelayBasedController(long target, int initialWindow, int minWindow, int maxWindow){
+        this.target = target;
+        this.window = initialWindow;
+        this.minWindow = minWindow;
+        this.maxWindow = maxWindow;
+    }
+
+    @Override
+    public synchronized int getWindow(){
+        return (int) window;
+    }
+
+    @Override
+    public synchronized void onAck(long rtt, long now){
+        if(rtt < 0){
+            return;
+        }
+        lastRtt = rtt;
+        if(rtt < baseRtt || now - baseRttTime > BASE_HISTORY){
+            baseRtt = rtt;
+            baseRttTime = now;
+        }
+
+        long queueDelay = rtt - baseRtt;
+        if(slowStart && queueDelay < target / 2){
+            window += 1;
+        }else{
+            slowStart = false;
+            double offTarget = (double) (target - queueDelay) / target;
+            window += offTarget / window;
+        }
+        window = Math.max(Math.min(window, maxWindow), minWindow);
+    }
+
+    @Override
+    public synchronized void onLoss(long now){
+        slowStart = false;
+        if(now - lastDecrease < lastRtt) return;
+        lastDecrease = now;
+        window = Math.max(window / 2, minWindow);
+    }
+}
@@ -0,0 +1,43 @@
+package io.anuke.rudp.congestion;
+
+import io.anuke.rudp.RUDPConstants;
+
+/**
+ * Loss-based AIMD window in the style of TCP NewReno: slow start up to the threshold, then one packet per window
+ * of acks. A loss halves the window, at most once per round trip so a burst of losses counts as one event.
+ */
+public class NewRenoController implements CongestionController{
+    private final int minWindow, maxWindow;
+    private double window, threshold;
+    private long lastDecrease, lastRtt;
+
+    public NewRenoController(){
+        this(RUDPConstants.CONGESTION_INITIAL_WINDOW, RUDPConstants.CONGESTION_MIN_WINDOW, RUDPConstants.CONGESTION_MAX_WINDOW);
+    }
+
+    public NewRenoController(int initialWindow, int minWindow, int maxWindow){
+        this.minWindow = minWindow;
+        this.maxWindow = maxWindow;
+        this.window = initialWindow;
+        this.threshold = maxWindow;
+    }
+
+    @Override
+    public synchronized int getWindow(){
+        return (int) window;
+    }
+
+    @Override
+    public synchronized void onAck(long rtt, long now){
+        if(rtt >= 0) lastRtt = rtt;
+        window = Math.min(window < threshold ? window + 1 : window + 1 / window, maxWindow);
+    }
+
+    @Override
+    public synchronized void onLoss(long now){
+        if(now - lastDecrease < lastRtt) return;
+        lastDecrease = now;
+        threshold = Math.max(window / 2, minWindow);
+        window = threshold;
+    }
+}
@@ -0,0 +1,40 @@
+package io.anuke.rudp.congestion;
+
+/**
+ * Token bucket spreading a window of packets over one round trip, so a full window never leaves as a single burst.
+ * A few packets may still go out back to back, up to the burst size, or up to what the rate allows between two drains.
+ */
+public class Pacer{
+    private final int burst;
+    private final long interval;
+    private double tokens;
+    private long lastRefill;
+
+    /**
+     * @param burst packets that may always leave back to back
+     * @param interval nanoseconds between two drains of the send queue, the bucket holds at least a rate of tokens that long
+     */
+    public Pacer(int burst, long interval){
+        this.burst = burst;
+        this.interval = interval;
+        this.tokens = burst;
+    }
+
+    /**
+     * @param window current congestion window in packets
+     * @param srtt smoothed round trip in nanoseconds, 0 if unknown (no pacing)
+     * @return 0 if a packet may be sent now, consuming a token, otherwise the nanoseconds to wait
+     */
+    public synchronized long acquire(int window, long srtt, long now){
+        if(srtt <= 0 || window <= 0) return 0;
+        double rate = (double) window / srtt;
+        //a drain every interval can only keep up with the rate if a whole interval of tokens is kept
+        tokens = Math.min(Math.max(burst, rate * interval), tokens + (now - lastRefill) * rate);
+        lastRefill = now;
+        if(tokens >= 1){
+            tokens -= 1;
+            return 0;
+        }
+        return (long) Math.ceil((1 - tokens) / rate);
+    }
+}
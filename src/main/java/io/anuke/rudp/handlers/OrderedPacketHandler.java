@@ -1,56 +1,29 @@
 package io.anuke.rudp.handlers;
 
 import io.anuke.rudp.rudp.RudpPacket;
-import io.anuke.rudp.utils.NetUtils;
-import io.anuke.rudp.utils.PacketQueue;
 
-public abstract class OrderedPacketHandler implements PacketHandler{
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
-    protected PacketQueue reliableQueue = new PacketQueue();
-    protected short lastHandledSeq = -1;
+/**
+ * Receives the payload of channel 0 messages. Ordering is done by each connection according to the channel's
+ * delivery mode (ordered by default), so one instance can be shared by every connection of a server.
+ */
+public abstract class OrderedPacketHandler implements PacketHandler{
 
     public abstract void handlePacket(byte[] data);
 
     @Override
-    public void onConnection(){
-    }
-
-    @Override
-    public void onDisconnected(String reason, boolean local){
-        reliableQueue = new PacketQueue();
-        lastHandledSeq = Short.MAX_VALUE;
-    }
-
-    @Override
-    public void onRemoteStatsReturned(int sentRemote, int sentRemoteR, int receivedRemote, int receivedRemoteR){
+    public void onPacketReceived(byte[] data, boolean reliable){
+        handlePacket(Arrays.copyOfRange(data, RudpPacket.HEADER_SIZE, data.length));
     }
 
     @Override
-    public void onPacketReceived(byte[] data, boolean local){
-        RudpPacket packet = new RudpPacket(data); //Parse received packet
-        short expectedSeq = NetUtils.shortIncrement(lastHandledSeq); //last + 1
-
-        if(NetUtils.sequenceGreaterThan(lastHandledSeq, packet.sequenceNum)){ // (last > received) == (received < last)
-            return; // Drop the packet, because we already handled it
-        }
-
-        //Received an unexpected packet? Enqueue and pass
-        if(packet.sequenceNum != expectedSeq){
-            reliableQueue.enqueue(packet);
-            return;
-        }
-
-        // Handle expected packet
-        handlePacket(packet.rawPayload);
-        lastHandledSeq = packet.sequenceNum;
-        expectedSeq = NetUtils.shortIncrement(lastHandledSeq);
-
-        // Handle every waiting packet
-        while(!reliableQueue.isEmpty() && reliableQueue.peek().sequenceNum == expectedSeq){
-            packet = reliableQueue.dequeue();
-            handlePacket(packet.rawPayload);
-            lastHandledSeq = expectedSeq;
-            expectedSeq = NetUtils.shortIncrement(lastHandledSeq);
-        }
+    public void onPacketReceived(int channel, ByteBuffer data, boolean reliable){
+        if(channel != 0) return;
+        //copied once, straight from the receive buffer
+        byte[] payload = new byte[data.remaining()];
+        data.get(payload);
+        handlePacket(payload);
     }
 }
@@ -1,5 +1,7 @@
 package io.anuke.rudp.handlers;
 
+import java.nio.ByteBuffer;
+
 public interface PacketHandler{
 
     /**Called when a client connects.*/
@@ -12,9 +14,33 @@ public interface PacketHandler{
      */
     default void onDisconnected(String reason, boolean local){}
 
-    /**Called when a packet is recieved. If the packet type is reliable, reliability must be handled by the listener!*/
+    /**Called when a packet is recieved. If the packet type is reliable, reliability must be handled by the listener!
+     * Data starts with the type and the channel seq ({@link io.anuke.rudp.rudp.RudpPacket#HEADER_SIZE} bytes).
+     * Only receives channel 0, the channel of {@code sendPacket} and {@code sendReliablePacket}.*/
     default void onPacketReceived(byte[] data, boolean reliable){}
 
+    /**Called when a message is received on any channel, in the format of {@link #onPacketReceived(byte[], boolean)}.
+     * Ordering and sequencing of the channel's {@link io.anuke.rudp.rudp.DeliveryMode} are already applied.
+     * Forwards channel 0 to {@link #onPacketReceived(byte[], boolean)} by default.*/
+    default void onPacketReceived(int channel, byte[] data, boolean reliable){
+        if(channel == 0) onPacketReceived(data, reliable);
+    }
+
+    /**Called when a message is received on any channel, without copying it.
+     * The buffer is a read-only view of the receive buffer, only valid during the call: the handler format starts at
+     * index 0 and the position is set to the payload, after {@link io.anuke.rudp.rudp.RudpPacket#HEADER_SIZE} bytes.
+     * Copies the message to {@link #onPacketReceived(int, byte[], boolean)} by default.*/
+    default void onPacketReceived(int channel, ByteBuffer data, boolean reliable){
+        byte[] bytes = new byte[data.limit()];
+        data.position(0);
+        data.get(bytes);
+        onPacketReceived(channel, bytes, reliable);
+    }
+
+    /**Called with the newest snapshot sent by {@link io.anuke.rudp.rudp.RUDPClient#sendSnapshot(byte[])}, older ones arriving late are skipped.
+     * The buffer is a read-only view from position 0 to the limit, only valid during the call.*/
+    default void onSnapshotReceived(ByteBuffer snapshot){}
+
     /**???*/
     default void onRemoteStatsReturned(int sentRemote, int sentRemoteR, int receivedRemote, int receivedRemoteR){}
 }
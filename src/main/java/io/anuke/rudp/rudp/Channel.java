@@ -0,0 +1,74 @@
+package io.anuke.rudp.rudp;
+
+import io.anuke.rudp.RUDPConstants;
+import io.anuke.rudp.utils.NetUtils;
+
+/**Sequence space of one channel of a connection. Receiving state is only used by the thread handling received packets.*/
+final class Channel{
+    final DeliveryMode mode;
+    private short sequenceReliable, sequenceUnreliable;
+
+    /**Next reliable seq to deliver on an ordered channel, and messages received ahead of it at index seq % window*/
+    private short nextReliable;
+    private final byte[][] window;
+    /**Newest unreliable seq delivered on a sequenced channel*/
+    private short lastUnreliable;
+    private boolean unreliableReceived;
+
+    Channel(DeliveryMode mode){
+        this.mode = mode;
+        this.window = mode == DeliveryMode.RELIABLE_ORDERED ? new byte[RUDPConstants.REORDER_WINDOW][] : null;
+    }
+
+    synchronized short nextSequence(boolean reliable){
+        short seq;
+        if(reliable){
+            seq = sequenceReliable;
+            sequenceReliable = NetUtils.shortIncrement(seq);
+        }else{
+            seq = sequenceUnreliable;
+            sequenceUnreliable = NetUtils.shortIncrement(seq);
+        }
+        return seq;
+    }
+
+    /**@return whether an unreliable message is newer than every one delivered so far, and may be delivered*/
+    boolean acceptSequenced(short seq){
+        if(unreliableReceived && !NetUtils.sequenceGreaterThan(seq, lastUnreliable)) return false;
+        unreliableReceived = true;
+        lastUnreliable = seq;
+        return true;
+    }
+
+    /**
+     * @return whether a reliable message can be handled: it was already delivered, or it fits the reorder window.
+     * Messages beyond the window must not be acknowledged, so that they are resent once it moved.
+     */
+    boolean fitsWindow(short seq){
+        return window == null || !NetUtils.sequenceGreaterThan(seq, nextReliable) || ((seq - nextReliable) & 0xFFFF) < window.length;
+    }
+
+    /**@return whether a reliable message is the next one to deliver on an ordered channel, which then moves past it*/
+    boolean deliverNext(short seq){
+        if(seq != nextReliable) return false;
+        window[seq & (window.length - 1)] = null;
+        nextReliable = NetUtils.shortIncrement(nextReliable);
+        return true;
+    }
+
+    /**Stores a reliable message received ahead of the next one to deliver. Older messages are dropped.*/
+    void buffer(short seq, byte[] message){
+        if(((seq - nextReliable) & 0xFFFF) < window.length) window[seq & (window.length - 1)] = message;
+    }
+
+    /**@return the next message received ahead of time, or null if it is still missing*/
+    byte[] pollOrdered(){
+        int index = nextReliable & (window.length - 1);
+        byte[] message = window[index];
+        if(message != null){
+            window[index] = null;
+            nextReliable = NetUtils.shortIncrement(nextReliable);
+        }
+        return message;
+    }
+}
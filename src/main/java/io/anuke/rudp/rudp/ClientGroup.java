@@ -0,0 +1,242 @@
+package io.anuke.rudp.rudp;
+
+import io.anuke.rudp.RUDPConstants;
+import io.anuke.rudp.transport.ChannelSender;
+import io.anuke.rudp.transport.Transport;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.DatagramPacket;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs many client connections on one thread, e.g. for load tests with thousands of bots in one process.
+ * Each connection keeps its own socket, so the server sees distinct endpoints, but they are all read by a single
+ * selector thread which also detects timeouts; connections made with
+ * {@link RUDPClient#RUDPClient(java.net.InetAddress, int, ClientGroup)} start no thread of their own.
+ * Their keep-alives and retransmissions run on the timer shared by every client.
+ * Handlers of the connections are called on the group thread unless they have a handler executor.
+ */
+public class ClientGroup{
+    //how often the group thread wakes up for timeouts when idle
+    private static final long CHECK_INTERVAL_MILLISECONDS = 100;
+
+    private final Selector selector;
+    private final Thread thread;
+    private final ConcurrentLinkedQueue<Member> registrations = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Member> attachments = new ConcurrentLinkedQueue<>();
+    private final List<Member> members = new ArrayList<>();
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(RUDPConstants.RECEIVE_MAX_SIZE);
+    private final Metrics metrics = new Metrics(null);
+    private volatile boolean running = true;
+
+    public ClientGroup() throws IOException{
+        selector = Selector.open();
+        thread = new Thread(this::run, "RUDP client group");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**@return traffic counters summed over every connection of the group*/
+    public Metrics getMetrics(){
+        return metrics;
+    }
+
+    /**Stops the group thread, connections still open stop receiving and time out.*/
+    public void close(){
+        running = false;
+        selector.wakeup();
+    }
+
+    /**Opens the socket of a connection, read by the group thread from now on.*/
+    Transport open() throws IOException{
+        if(!running) throw new SocketException("Client group closed");
+        DatagramChannel channel = DatagramChannel.open().bind(null);
+        channel.configureBlocking(false);
+        Member member = new Member(channel);
+        registrations.add(member);
+        selector.wakeup();
+        return member;
+    }
+
+    /**Hands the datagrams of a connected client's socket straight to it instead of the handshake queue.*/
+    void attach(RUDPClient client, Transport transport){
+        Member member = (Member) transport;
+        member.connected = client;
+        attachments.add(member);
+        selector.wakeup();
+    }
+
+    private void run(){
+        while(running){
+            try{
+                selector.select(CHECK_INTERVAL_MILLISECONDS);
+            }catch(IOException e){
+                e.printStackTrace();
+                break;
+            }
+
+            Member registration;
+            while((registration = registrations.poll()) != null){
+                try{
+                    registration.channel.register(selector, SelectionKey.OP_READ, registration);
+                    members.add(registration);
+                }catch(ClosedChannelException e){
+                    //closed before the group got to it
+                }
+            }
+
+            Member attachment;
+            while((attachment = attachments.poll()) != null){
+                //datagrams that came after the handshake reply, on this thread so the client only sees one receiver
+                RUDPClient client = attachment.connected;
+                DatagramPacket packet;
+                while((packet = attachment.handshake.poll()) != null){
+                    handle(client, ByteBuffer.wrap(packet.getData()));
+                }
+                attachment.client = client;
+            }
+
+            for(SelectionKey key : selector.selectedKeys()){
+                read((Member) key.attachment());
+            }
+            selector.selectedKeys().clear();
+
+            maintain();
+        }
+        try{
+            selector.close();
+        }catch(IOException e){
+            e.printStackTrace();
+        }
+    }
+
+    private void read(Member member){
+        try{
+            while(true){
+                receiveBuffer.clear();
+                InetSocketAddress source = (InetSocketAddress) member.channel.receive(receiveBuffer);
+                if(source == null) return;
+                receiveBuffer.flip();
+
+                RUDPClient client = member.client;
+                if(client != null){
+                    handle(client, receiveBuffer);
+                }else{
+                    byte[] data = new byte[receiveBuffer.remaining()];
+                    receiveBuffer.get(data);
+                    member.handshake.offer(new DatagramPacket(data, data.length, source));
+                }
+            }
+        }catch(IOException e){
+            if(member.channel.isOpen()) e.printStackTrace();
+        }
+    }
+
+    private void handle(RUDPClient client, ByteBuffer data){
+        try{
+            client.handlePacket(data);
+        }catch(Exception e){
+            System.err.print("[ClientGroup] An error occured while handling packet:");
+            e.printStackTrace();
+        }
+    }
+
+    /**Drops the connections the server stopped answering.*/
+    private void maintain(){
+        long now = System.nanoTime();
+        long timeout = TimeUnit.MILLISECONDS.toNanos(RUDPConstants.CLIENT_TIMEOUT_TIME_MILLISECONDS);
+
+        for(int i = members.size() - 1; i >= 0; i--){
+            Member member = members.get(i);
+            RUDPClient client = member.client;
+            if(!member.channel.isOpen()){
+                members.remove(i);
+            }else if(client != null){
+                if(now - client.lastPacketReceiveTime > timeout){
+                    client.state = ConnectionState.STATE_DISCONNECTED;
+                    client.disconnected("Connection timed out");
+                    member.close();
+                    members.remove(i);
+                }
+            }
+        }
+    }
+
+    /**Socket of one connection: datagrams go to the handshake queue until the client is attached.*/
+    private class Member implements Transport{
+        final DatagramChannel channel;
+        final ChannelSender sender;
+        final LinkedBlockingQueue<DatagramPacket> handshake = new LinkedBlockingQueue<>();
+        /**Set by the group thread once attached, datagrams then go straight to it*/
+        RUDPClient client;
+        volatile RUDPClient connected;
+        volatile int timeout;
+
+        Member(DatagramChannel channel){
+            this.channel = channel;
+            this.sender = new ChannelSender(channel);
+        }
+
+        @Override
+        public void send(byte[] data, int offset, int length, InetSocketAddress endpoint) throws IOException{
+            sender.send(ByteBuffer.wrap(data, offset, length), endpoint);
+        }
+
+        @Override
+        public void send(ByteBuffer data, InetSocketAddress endpoint) throws IOException{
+            sender.send(data, endpoint);
+        }
+
+        /**Only used for the handshake, before the client is attached.*/
+        @Override
+        public void receive(PacketReceiver receiver) throws IOException{
+            DatagramPacket packet;
+            try{
+                packet = timeout == 0 ? handshake.take() : handshake.poll(timeout, TimeUnit.MILLISECONDS);
+            }catch(InterruptedException e){
+                throw new InterruptedIOException("Receive interrupted");
+            }
+            if(packet == null) throw new SocketTimeoutException("Receive timed out");
+            receiver.received(ByteBuffer.wrap(packet.getData()), packet.getAddress(), packet.getPort());
+        }
+
+        @Override
+        public void setTimeout(int timeout){
+            this.timeout = timeout;
+        }
+
+        @Override
+        public int getLocalPort(){
+            return channel.socket().getLocalPort();
+        }
+
+        @Override
+        public boolean isClosed(){
+            return !channel.isOpen();
+        }
+
+        @Override
+        public void close(){
+            try{
+                channel.close();
+            }catch(IOException e){
+                e.printStackTrace();
+            }
+            sender.close();
+            selector.wakeup();
+        }
+    }
+}
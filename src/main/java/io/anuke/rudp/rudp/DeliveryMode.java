@@ -0,0 +1,19 @@
+package io.anuke.rudp.rudp;
+
+/**How messages sent on a channel reach the remote handler.*/
+public enum DeliveryMode{
+    /**Resent until acknowledged, delivered in the order they were sent. A lost message holds back later ones on the same channel only.*/
+    RELIABLE_ORDERED(true),
+    /**Resent until acknowledged, delivered as soon as they arrive.*/
+    RELIABLE_UNORDERED(true),
+    /**Sent once, messages older than the newest one received are dropped.*/
+    UNRELIABLE_SEQUENCED(false),
+    /**Sent once, delivered as they arrive.*/
+    UNRELIABLE(false);
+
+    public final boolean reliable;
+
+    DeliveryMode(boolean reliable){
+        this.reliable = reliable;
+    }
+}
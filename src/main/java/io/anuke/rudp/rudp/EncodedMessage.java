@@ -0,0 +1,54 @@
+package io.anuke.rudp.rudp;
+
+import io.anuke.rudp.RUDPConstants;
+import io.anuke.rudp.RUDPConstants.PacketType;
+
+import java.nio.ByteBuffer;
+import java.util.IdentityHashMap;
+
+/**
+ * Message sent to many connections, encoded once: the payload is copied after the headers a single time and each
+ * connection only patches its seqs and acks in before sending. Compressed once per dictionary in use.
+ * Used by one sending thread at a time.
+ */
+final class EncodedMessage{
+    private static final int HEADER = RUDPConstants.PACKET_HEADER_SIZE + RUDPConstants.MESSAGE_HEADER_SIZE;
+    private static final Object NO_DICTIONARY = new Object();
+
+    final int channel;
+    final boolean reliable;
+    private final byte[] packet;
+    /**Compressed packets by dictionary, created on first use*/
+    private IdentityHashMap<Object, byte[]> compressed;
+
+    EncodedMessage(int channel, ByteBuffer data, boolean reliable){
+        this.channel = channel;
+        this.reliable = reliable;
+        this.packet = new byte[HEADER + data.remaining()];
+        packet[0] = reliable ? PacketType.RELIABLE : PacketType.UNRELIABLE;
+        packet[RUDPConstants.PACKET_HEADER_SIZE] = (byte) channel;
+        data.get(packet, HEADER, packet.length - HEADER);
+    }
+
+    /**@return the payload, for connections that must fragment it*/
+    ByteBuffer payload(){
+        return ByteBuffer.wrap(packet, HEADER, packet.length - HEADER);
+    }
+
+    /**
+     * @return the shared packet to patch for a connection, compressed with its compressor if it has one and that pays off.
+     * The same array is returned to every connection using the same dictionary.
+     */
+    byte[] packet(MessageCompressor compressor, int threshold){
+        if(compressor == null || packet.length - HEADER < threshold) return packet;
+        if(compressed == null) compressed = new IdentityHashMap<>();
+        Object key = compressor.getDictionary() == null ? NO_DICTIONARY : compressor.getDictionary();
+        byte[] result = compressed.get(key);
+        if(result == null){
+            result = compressor.compress(packet, HEADER);
+            if(result != packet) result[RUDPConstants.PACKET_HEADER_SIZE] |= RUDPConstants.COMPRESSED_MESSAGE_FLAG;
+            compressed.put(key, result);
+        }
+        return result;
+    }
+}
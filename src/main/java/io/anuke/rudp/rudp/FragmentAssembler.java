@@ -0,0 +1,110 @@
+package io.anuke.rudp.rudp;
+
+import io.anuke.rudp.RUDPConstants;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * Collects the fragments of large reliable messages until every one of them arrived.
+ * Fragments of a message use consecutive seqs, so the seq of fragment 0 identifies the message.
+ * Only used by the thread handling received packets.
+ */
+final class FragmentAssembler{
+    private final HashMap<Short, Message> messages = new HashMap<>();
+    private final long timeout;
+
+    /**@param timeout nanoseconds an incomplete message is kept after its first fragment arrived*/
+    FragmentAssembler(long timeout){
+        this.timeout = timeout;
+    }
+
+    /**
+     * Stores a received fragment.
+     *
+     * @param data packet containing the fragment, its payload from offset up to the limit
+     * @return the message if this fragment completed it, null otherwise
+     */
+    byte[] add(short seq, int index, int count, ByteBuffer data, int offset, long now){
+        //counts come from the wire, each new message allocates room for all its chunks
+        if(index >= count || count > RUDPConstants.FRAGMENT_MAX_COUNT) return null;
+        expire(now);
+
+        short start = (short) (seq - index);
+        Message message = messages.get(start);
+        if(message == null){
+            if(messages.size() >= RUDPConstants.FRAGMENT_MAX_MESSAGES) removeOldest();
+            message = new Message(count, now);
+            messages.put(start, message);
+        }else if(message.count != count || message.chunks[index] != null){
+            return null;
+        }
+
+        byte[] chunk = new byte[data.limit() - offset];
+        data.position(offset);
+        data.get(chunk);
+        data.position(0);
+        message.chunks[index] = chunk;
+        message.size += chunk.length;
+
+        if(message.size > RUDPConstants.MAX_MESSAGE_SIZE){
+            messages.remove(start);
+            return null;
+        }
+        if(++message.received < count) return null;
+
+        messages.remove(start);
+        return message.join();
+    }
+
+    /**@return messages still missing fragments*/
+    int size(){
+        return messages.size();
+    }
+
+    void clear(){
+        messages.clear();
+    }
+
+    private void removeOldest(){
+        Iterator<Message> it = messages.values().iterator();
+        Message oldest = it.next();
+        while(it.hasNext()){
+            Message message = it.next();
+            if(message.firstReceived - oldest.firstReceived < 0) oldest = message;
+        }
+        messages.values().remove(oldest);
+    }
+
+    private void expire(long now){
+        if(messages.isEmpty()) return;
+        Iterator<Message> it = messages.values().iterator();
+        while(it.hasNext()){
+            if(now - it.next().firstReceived > timeout) it.remove();
+        }
+    }
+
+    private static class Message{
+        final int count;
+        final long firstReceived;
+        final byte[][] chunks;
+        int received, size;
+
+        Message(int count, long firstReceived){
+            this.count = count;
+            this.firstReceived = firstReceived;
+            this.chunks = new byte[count][];
+        }
+
+        byte[] join(){
+            byte[] bytes = new byte[size];
+            int position = 0;
+            for(byte[] chunk : chunks){
+                System.arraycopy(chunk, 0, bytes, position, chunk.length);
+                position += chunk.length;
+            }
+            return bytes;
+        }
+    }
+}
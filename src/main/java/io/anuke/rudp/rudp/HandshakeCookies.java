@@ -0,0 +1,88 @@
+package io.anuke.rudp.rudp;
+
+import io.anuke.rudp.RUDPConstants;
+import io.anuke.rudp.utils.NetUtils;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Stateless handshake cookies: the time they were issued and an HMAC of it and of the client endpoint, keyed by a
+ * secret of this server. A client echoing a valid one proves it receives at its address, so no state is kept
+ * for handshakes until then and spoofed ones cost a single reply.
+ */
+final class HandshakeCookies{
+    private static final int TIME_SIZE = 4;
+    private static final String ALGORITHM = "HmacSHA256";
+
+    private final SecretKeySpec key;
+    /**Macs are not thread safe, each receive thread gets its own*/
+    private final ThreadLocal<Mac> macs = ThreadLocal.withInitial(this::createMac);
+
+    HandshakeCookies(){
+        byte[] secret = new byte[32];
+        new SecureRandom().nextBytes(secret);
+        key = new SecretKeySpec(secret, ALGORITHM);
+    }
+
+    /**Writes a cookie for an endpoint, {@link RUDPConstants#HANDSHAKE_COOKIE_SIZE} bytes at offset.*/
+    void create(InetAddress address, int port, byte[] out, int offset){
+        int time = now();
+        NetUtils.writeBytes(out, offset, time);
+        byte[] mac = mac(address, port, time);
+        System.arraycopy(mac, 0, out, offset + TIME_SIZE, RUDPConstants.HANDSHAKE_COOKIE_SIZE - TIME_SIZE);
+    }
+
+    /**@return whether the cookie at offset was issued to this endpoint, and has not expired*/
+    boolean verify(ByteBuffer data, int offset, InetAddress address, int port){
+        if(data.limit() - offset < RUDPConstants.HANDSHAKE_COOKIE_SIZE) return false;
+        int time = data.getInt(offset);
+        int age = now() - time;
+        if(age < 0 || age > RUDPConstants.HANDSHAKE_COOKIE_LIFETIME_MILLISECONDS) return false;
+
+        byte[] expected = mac(address, port, time);
+        byte[] received = new byte[RUDPConstants.HANDSHAKE_COOKIE_SIZE - TIME_SIZE];
+        for(int i = 0; i < received.length; i++) received[i] = data.get(offset + TIME_SIZE + i);
+        //constant time, the whole mac is compared whatever the first mismatch
+        return MessageDigest.isEqual(received, expected);
+    }
+
+    private byte[] mac(InetAddress address, int port, int time){
+        Mac mac = macs.get();
+        mac.update(address.getAddress());
+        byte[] fields = new byte[8];
+        NetUtils.writeBytes(fields, 0, port);
+        NetUtils.writeBytes(fields, 4, time);
+        mac.update(fields);
+        return truncate(mac.doFinal(), RUDPConstants.HANDSHAKE_COOKIE_SIZE - TIME_SIZE);
+    }
+
+    private Mac createMac(){
+        try{
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return mac;
+        }catch(GeneralSecurityException e){
+            //every Java platform is required to provide HmacSHA256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] truncate(byte[] data, int length){
+        byte[] result = new byte[length];
+        System.arraycopy(data, 0, result, 0, length);
+        return result;
+    }
+
+    /**@return milliseconds of a monotonic clock, wrapping around; only differences are meaningful*/
+    private static int now(){
+        return (int) TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+}
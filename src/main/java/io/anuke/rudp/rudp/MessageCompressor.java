@@ -0,0 +1,119 @@
+package io.anuke.rudp.rudp;
+
+import io.anuke.rudp.RUDPConstants;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflates message payloads of one connection, each message on its own so they can be lost or reordered.
+ * A preset dictionary shared by both sides lets messages of a few dozen bytes compress too.
+ * The deflater and inflater are kept for the whole connection and released by {@link #end()}.
+ */
+final class MessageCompressor{
+    private final byte[] dictionary;
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private final Inflater inflater = new Inflater(true);
+    /**Output of the deflater, compressed payloads are copied from it into a packet of the right size*/
+    private final byte[] deflated = new byte[RUDPConstants.RECEIVE_MAX_SIZE];
+    /**Compressed payloads received, copied out of direct receive buffers*/
+    private byte[] input = new byte[RUDPConstants.RECEIVE_MAX_SIZE];
+    /**Decompressed messages, reused for every message up to the datagram size*/
+    private final byte[] inflated = new byte[RUDPConstants.RECEIVE_MAX_SIZE];
+    private boolean ended;
+
+    /**@param dictionary preset dictionary of both sides, null for none*/
+    MessageCompressor(byte[] dictionary){
+        this.dictionary = dictionary;
+    }
+
+    /**@return the preset dictionary, null for none*/
+    byte[] getDictionary(){
+        return dictionary;
+    }
+
+    /**@return id of a dictionary exchanged in the handshake, the Adler-32 checksum zlib uses too; 0 for none*/
+    static int dictionaryId(byte[] dictionary){
+        if(dictionary == null) return 0;
+        Adler32 adler = new Adler32();
+        adler.update(dictionary, 0, dictionary.length);
+        return (int) adler.getValue();
+    }
+
+    /**
+     * Compresses the payload of a packet, from offset to its end.
+     *
+     * @return a new packet with the same headers and the compressed payload, or the same packet if compressing would not make it smaller
+     */
+    synchronized byte[] compress(byte[] packet, int offset){
+        int length = packet.length - offset;
+        if(ended || length < 2) return packet;
+
+        deflater.reset();
+        if(dictionary != null) deflater.setDictionary(dictionary);
+        deflater.setInput(packet, offset, length);
+        deflater.finish();
+        //room for one byte less than the payload, anything larger is not worth it
+        byte[] output = length - 1 <= deflated.length ? deflated : new byte[length - 1];
+        int compressed = deflater.deflate(output, 0, length - 1);
+        if(!deflater.finished()) return packet;
+
+        byte[] result = new byte[offset + compressed];
+        System.arraycopy(packet, 0, result, 0, offset);
+        System.arraycopy(output, 0, result, offset, compressed);
+        return result;
+    }
+
+    /**
+     * Decompresses a received message. Only used by the thread handling received packets.
+     *
+     * @param data message with its header at offset and the compressed payload up to the limit
+     * @return the message with the same header and the decompressed payload, valid until the next call;
+     * null if the payload is corrupt or larger than {@link RUDPConstants#MAX_MESSAGE_SIZE}
+     */
+    synchronized ByteBuffer decompress(ByteBuffer data, int offset){
+        if(ended) return null;
+        int header = RUDPConstants.MESSAGE_HEADER_SIZE;
+        int length = data.limit() - offset - header;
+        if(length > input.length) input = new byte[length];
+        ByteBuffer source = data.duplicate();
+        source.position(offset + header);
+        source.get(input, 0, length);
+
+        inflater.reset();
+        if(dictionary != null) inflater.setDictionary(dictionary);
+        inflater.setInput(input, 0, length);
+
+        byte[] output = inflated;
+        int size = header;
+        try{
+            while(!inflater.finished()){
+                if(size == output.length){
+                    //only fragmented messages get this large, not worth keeping such a buffer around
+                    if(size >= RUDPConstants.MAX_MESSAGE_SIZE + header) return null;
+                    output = Arrays.copyOf(output, Math.min(output.length * 2, RUDPConstants.MAX_MESSAGE_SIZE + header));
+                }
+                int count = inflater.inflate(output, size, output.length - size);
+                if(count == 0 && (inflater.needsInput() || inflater.needsDictionary())) return null;
+                size += count;
+            }
+        }catch(DataFormatException e){
+            return null;
+        }
+
+        for(int i = 0; i < header; i++) output[i] = data.get(offset + i);
+        return ByteBuffer.wrap(output, 0, size);
+    }
+
+    /**Releases the native memory of the deflater and inflater, messages are no longer compressed afterwards.*/
+    synchronized void end(){
+        if(ended) return;
+        ended = true;
+        deflater.end();
+        inflater.end();
+    }
+}
@@ -0,0 +1,108 @@
+package io.anuke.rudp.rudp;
+
+import io.anuke.rudp.utils.Histogram;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Traffic counters of a connection, or of every connection of a server. Counters are striped adders, so the
+ * threads sending, receiving and retransmitting record without contending; connection metrics also add to the server's.
+ */
+public final class Metrics{
+    //upper bounds of the RTT histogram buckets, in microseconds
+    private static final long[] RTT_BUCKETS_MICROS = {
+        500, 1_000, 2_000, 5_000, 10_000, 20_000, 50_000, 100_000, 200_000, 500_000, 1_000_000, 2_000_000
+    };
+
+    private final Metrics parent;
+    private final LongAdder packetsSent = new LongAdder(), bytesSent = new LongAdder();
+    private final LongAdder packetsReceived = new LongAdder(), bytesReceived = new LongAdder();
+    private final LongAdder retransmissions = new LongAdder(), duplicates = new LongAdder(), expired = new LongAdder();
+    private final LongAdder mismatched = new LongAdder();
+    private final Histogram rtt = new Histogram(RTT_BUCKETS_MICROS);
+
+    Metrics(Metrics parent){
+        this.parent = parent;
+    }
+
+    /**@return datagrams sent, retransmissions and acks included*/
+    public long getPacketsSent(){
+        return packetsSent.sum();
+    }
+
+    public long getBytesSent(){
+        return bytesSent.sum();
+    }
+
+    /**@return datagrams received, batches counting once*/
+    public long getPacketsReceived(){
+        return packetsReceived.sum();
+    }
+
+    public long getBytesReceived(){
+        return bytesReceived.sum();
+    }
+
+    /**@return reliable packets sent again after their retransmission timeout*/
+    public long getRetransmissions(){
+        return retransmissions.sum();
+    }
+
+    /**@return reliable packets received more than once and dropped*/
+    public long getDuplicates(){
+        return duplicates.sum();
+    }
+
+    /**@return reliable packets given up on after {@link io.anuke.rudp.RUDPConstants#PACKET_TIMEOUT_TIME_MILLISECONDS}*/
+    public long getExpired(){
+        return expired.sum();
+    }
+
+    /**@return broadcast or group messages not sent because the connection's channel is missing or has another delivery mode*/
+    public long getMismatched(){
+        return mismatched.sum();
+    }
+
+    /**@return round trip times sampled from acks, in microseconds, from 0.5 ms to 2 s*/
+    public Histogram getRtt(){
+        return rtt;
+    }
+
+    void sent(int bytes){
+        packetsSent.increment();
+        bytesSent.add(bytes);
+        if(parent != null) parent.sent(bytes);
+    }
+
+    void received(int bytes){
+        packetsReceived.increment();
+        bytesReceived.add(bytes);
+        if(parent != null) parent.received(bytes);
+    }
+
+    void retransmitted(){
+        retransmissions.increment();
+        if(parent != null) parent.retransmitted();
+    }
+
+    void duplicate(){
+        duplicates.increment();
+        if(parent != null) parent.duplicate();
+    }
+
+    void expired(){
+        expired.increment();
+        if(parent != null) parent.expired();
+    }
+
+    void mismatched(){
+        mismatched.increment();
+        if(parent != null) parent.mismatched();
+    }
+
+    void rtt(long nanos){
+        rtt.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+        if(parent != null) parent.rtt(nanos);
+    }
+}
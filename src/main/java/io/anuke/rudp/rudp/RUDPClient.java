@@ -2,57 +2,158 @@ package io.anuke.rudp.rudp;
 
 import io.anuke.rudp.RUDPConstants;
 import io.anuke.rudp.RUDPConstants.PacketType;
+import io.anuke.rudp.congestion.CongestionController;
+import io.anuke.rudp.congestion.NewRenoController;
+import io.anuke.rudp.congestion.Pacer;
 import io.anuke.rudp.handlers.PacketHandler;
+import io.anuke.rudp.transport.Transport;
+import io.anuke.rudp.transport.Transport.PacketReceiver;
+import io.anuke.rudp.transport.TransportFactory;
+import io.anuke.rudp.transport.TransportType;
+import io.anuke.rudp.utils.DeltaCodec;
 import io.anuke.rudp.utils.NetUtils;
+import io.anuke.rudp.utils.RttEstimator;
+import io.anuke.rudp.utils.SequenceWindow;
+import io.anuke.rudp.utils.SerialExecutor;
+import io.anuke.rudp.utils.TimerWheel;
 
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
-import java.util.Map.Entry;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
 
 public class RUDPClient{ //TODO remove use of ByteBuffers and use functions instead
 
     public ConnectionState state = ConnectionState.STATE_DISCONNECTED;
     InetAddress address;
     int port;
-    long lastPacketReceiveTime;
+    final InetSocketAddress endpoint;
+    /**Server groups this connection is in, guarded by itself so leaving them on disconnect cannot race a join*/
+    final Set<String> serverGroups = new HashSet<>();
+    /**System.nanoTime() of the last packet received*/
+    volatile long lastPacketReceiveTime;
     short sequenceReliable = 0;
     short sequenceUnreliable = 0;
-    short lastPingSeq = 0;
     int sent, sentReliable;
     int received, receivedReliable;
     private ClientType type = ClientType.NORMAL_CLIENT;
     private RUDPServer server;
-    private DatagramSocket socket;
+    private TransportFactory transportFactory = TransportType.DATAGRAM_SOCKET;
+    private ClientGroup group;
+    private Transport transport;
     private PacketHandler packetHandler;
-    private Thread reliableThread;
+    private volatile SerialExecutor handlerMailbox;
+    private final Metrics metrics;
     private Thread receiveThread;
-    private Thread pingThread;
-    private LinkedHashMap<Short, Long> packetsReceived = new LinkedHashMap<>();
-    private final List<ReliablePacket> packetsSent = Collections.synchronizedList(new ArrayList<>());
+    /**System.nanoTime() of the last packet sent, keep-alives only go out after PING_INTERVAL without one*/
+    private volatile long lastPacketSendTime;
+    private volatile KeepAliveTask keepAlive;
+    private volatile ProbeTask mtuProbe;
+    /**Latest send time received from the remote in the high 32 bits, local time it arrived in the low 32 bits; 0 if none yet*/
+    private volatile long remoteTimestamp;
+    /**Reliable seqs received, for duplicate detection and the ack field. Only used by the receiving thread.*/
+    private final SequenceWindow receiveWindow = new SequenceWindow(RUDPConstants.RECEIVE_WINDOW);
+    /**
+     * Reliable packets sent and not acknowledged yet, at index seq % SEND_WINDOW. Only the thread holding the sendQueue
+     * monitor fills slots, acks and expiry empty them with a compare-and-set, so acks never wait for a lock.
+     */
+    private final AtomicReferenceArray<ReliablePacket> inFlight = new AtomicReferenceArray<>(RUDPConstants.SEND_WINDOW);
+    private final AtomicInteger inFlightCount = new AtomicInteger();
+    /**Reliable packets waiting for room in the congestion window, guarded by itself*/
+    private final ArrayDeque<ReliablePacket> sendQueue = new ArrayDeque<>();
+    private CongestionController congestion = new NewRenoController();
+    private final Pacer pacer = new Pacer(RUDPConstants.PACING_BURST, TimeUnit.MILLISECONDS.toNanos(RUDPConstants.TIMER_TICK_MILLISECONDS));
+    private final DrainTask drainTask = new DrainTask();
+    private boolean drainScheduled;
+    private static TimerWheel clientTimer;
+    private static final byte[] EMPTY = new byte[0];
+
+    /**Latest reliable seq received in the high 32 bits, bitfield of the 32 seqs before it in the low 32 bits.*/
+    private volatile long ackState = 0xFFFF_0000_0000L;
+    /**Reliable packets received since the last packet carrying acks was sent.*/
+    private volatile int unackedReceived;
+    private volatile boolean ackScheduled;
+    private final AckTask ackTask = new AckTask();
+    /**Datagram collecting packets while batching is enabled, guarded by batchLock*/
+    private byte[] batch;
+    private int batchLength;
+    /**Batches sent so far, identifies the pending batch*/
+    private long batchCount;
+    /**Reliable packets in the pending batch, their send time is stamped once it leaves*/
+    private final ArrayList<ReliablePacket> batchPackets = new ArrayList<>();
+    private volatile boolean batching;
+    private long flushDelay = RUDPConstants.BATCH_FLUSH_DELAY_MILLISECONDS;
+    private boolean flushScheduled;
+    private final Object batchLock = new Object();
+    private final FlushTask flushTask = new FlushTask();
+    private volatile Channel[] channels = {new Channel(DeliveryMode.RELIABLE_ORDERED)};
+    /**Cookie of the handshake that created a server connection, and the reply sent, to answer a duplicate of it again*/
+    byte[] handshakeCookie, handshakeReply;
+    private final SnapshotHistory snapshots = new SnapshotHistory();
+    private final FragmentAssembler fragments = new FragmentAssembler(TimeUnit.MILLISECONDS.toNanos(RUDPConstants.PACKET_TIMEOUT_TIME_MILLISECONDS));
+    /**Compression offered in the handshake, with the preset dictionary of this side*/
+    private boolean compression;
+    private byte[] compressionDictionary;
+    private volatile int compressionThreshold = RUDPConstants.COMPRESSION_THRESHOLD;
+    /**Set once both sides agreed on compression*/
+    private volatile MessageCompressor compressor;
+    /**Largest datagram known to reach the remote, in UDP payload bytes. Reliable messages above it are fragmented.*/
+    private volatile int mtu = RUDPConstants.MTU_MIN;
     private int id;
-    private int latency = 400;
-    private RUDPClient instance = this;
+    private volatile int latency = 400;
+    /**Round trip measured with the header timestamps, smoothed, in microseconds; -1 until the first sample*/
+    private long smoothedLatency = -1;
+    private final RttEstimator rtt = new RttEstimator(
+        TimeUnit.MILLISECONDS.toNanos(RUDPConstants.RTO_INITIAL_MILLISECONDS),
+        TimeUnit.MILLISECONDS.toNanos(RUDPConstants.RTO_MIN_MILLISECONDS),
+        TimeUnit.MILLISECONDS.toNanos(RUDPConstants.RTO_MAX_MILLISECONDS),
+        TimeUnit.MILLISECONDS.toNanos(RUDPConstants.TIMER_TICK_MILLISECONDS));
 
     public RUDPClient(InetAddress address, int port){
+        this(address, port, TransportType.DATAGRAM_SOCKET);
+    }
+
+    /**@param transportFactory opens the socket of each connection attempt, a {@link TransportType} or a {@link io.anuke.rudp.transport.SimulatedNetwork}*/
+    public RUDPClient(InetAddress address, int port, TransportFactory transportFactory){
+        this(address, port, transportFactory, null);
+    }
+
+    /**Creates a connection run by the thread of a group instead of threads of its own, see {@link ClientGroup}.*/
+    public RUDPClient(InetAddress address, int port, ClientGroup group){
+        this(address, port, null, group);
+    }
+
+    private RUDPClient(InetAddress address, int port, TransportFactory transportFactory, ClientGroup group){
         this.address = address;
         this.port = port;
+        this.endpoint = new InetSocketAddress(address, port);
+        this.transportFactory = transportFactory;
+        this.group = group;
+        this.metrics = new Metrics(group == null ? null : group.getMetrics());
     }
 
-    RUDPClient(InetAddress clientAddress, int clientPort, RUDPServer rudpServer, PacketHandler handler){
+    /**@param transport socket of the server shard owning this connection, replies go out through it*/
+    RUDPClient(InetAddress clientAddress, int clientPort, RUDPServer rudpServer, Transport transport, PacketHandler handler){
         this.address = clientAddress;
         this.port = clientPort;
+        this.endpoint = new InetSocketAddress(clientAddress, clientPort);
         this.server = rudpServer;
+        this.transport = transport;
+        this.metrics = new Metrics(rudpServer.getMetrics());
         this.type = ClientType.SERVER_CHILD;
         this.sentReliable = 0;
         this.sent = 0;
         this.packetHandler = handler;
 
-        lastPacketReceiveTime = System.currentTimeMillis();
+        lastPacketReceiveTime = System.nanoTime();
 
         state = ConnectionState.STATE_CONNECTING;
     }
@@ -82,10 +183,37 @@ public class RUDPClient{ //TODO remove use of ByteBuffers and use functions inst
         this.packetHandler = handler;
     }
 
+    /**
+     * Runs handler callbacks on the given executor instead of the receive thread, so slow handlers don't delay
+     * receiving and acknowledging packets. Callbacks of this connection still run one at a time and in order;
+     * any executor works, e.g. a fixed pool, a {@link java.util.concurrent.ForkJoinPool} or virtual threads.
+     * Received buffers are copied for the handler, since the receive buffer is reused once the callback is queued.
+     *
+     * @param executor null to call handlers on the receive thread, the default
+     */
+    public void setHandlerExecutor(Executor executor){
+        this.handlerMailbox = executor == null ? null : new SerialExecutor(executor);
+    }
+
     public int getLatency(){
         return latency;
     }
 
+    /**@return current retransmission timeout in nanoseconds, before per-packet backoff*/
+    public long getRTO(){
+        return rtt.getRto();
+    }
+
+    /**@return smoothed round trip time in nanoseconds, sampled from reliable packet acks; 0 until the first sample*/
+    public long getSRTT(){
+        return rtt.getSrtt();
+    }
+
+    /**@return round trip time variation in nanoseconds*/
+    public long getRTTVAR(){
+        return rtt.getRttVar();
+    }
+
     public int getSent(){
         return sent;
     }
@@ -102,6 +230,139 @@ public class RUDPClient{ //TODO remove use of ByteBuffers and use functions inst
         return receivedReliable;
     }
 
+    /**@return traffic counters of this connection*/
+    public Metrics getMetrics(){
+        return metrics;
+    }
+
+    /**
+     * @return largest datagram known to reach the remote, raised by the probes sent once connected.
+     * The don't fragment bit is not set, so a path fragmenting at the IP layer acks probes above its real MTU.
+     */
+    public int getMTU(){
+        return mtu;
+    }
+
+    /**@return reliable packets sent and not acknowledged yet*/
+    public int getPacketsInFlight(){
+        return inFlightCount.get();
+    }
+
+    /**@return reliable packets waiting for room in the congestion window*/
+    public int getQueuedPackets(){
+        synchronized(sendQueue){
+            return sendQueue.size();
+        }
+    }
+
+    /**Replaces the congestion controller deciding how many reliable packets may be in flight. Defaults to {@link NewRenoController}.*/
+    public void setCongestionController(CongestionController congestion){
+        this.congestion = congestion;
+    }
+
+    public CongestionController getCongestionController(){
+        return congestion;
+    }
+
+    /**
+     * Enables packing reliable and unreliable packets into as few datagrams as the MTU allows.
+     * A batch is sent once full, on {@link #flush()}, or after the flush delay.
+     */
+    public void setBatching(boolean batching){
+        synchronized(batchLock){
+            if(batching && batch == null) batch = new byte[RUDPConstants.RECEIVE_MAX_SIZE];
+            this.batching = batching;
+            if(!batching) flushBatch();
+        }
+    }
+
+    public boolean isBatching(){
+        return batching;
+    }
+
+    /**Sets the time a batch may collect packets before being sent. 0 only sends batches once full or on {@link #flush()}.*/
+    public void setFlushDelay(long millis){
+        synchronized(batchLock){
+            this.flushDelay = millis;
+        }
+    }
+
+    public long getFlushDelay(){
+        return flushDelay;
+    }
+
+    /**Sends the packets batched so far.*/
+    public void flush(){
+        synchronized(batchLock){
+            flushBatch();
+        }
+    }
+
+    /**
+     * Configures the channels of this connection, channel i delivering messages as modes[i].
+     * Both sides must use the same channels, set before connecting. Defaults to a single
+     * {@link DeliveryMode#RELIABLE_ORDERED} channel, the one used by sendPacket and sendReliablePacket.
+     */
+    public void setChannels(DeliveryMode... modes){
+        if(modes.length == 0 || modes.length > RUDPConstants.MAX_CHANNELS){
+            throw new IllegalArgumentException("Channel count must be between 1 and " + RUDPConstants.MAX_CHANNELS);
+        }
+        Channel[] channels = new Channel[modes.length];
+        for(int i = 0; i < modes.length; i++){
+            channels[i] = new Channel(modes[i]);
+        }
+        this.channels = channels;
+    }
+
+    public int getChannelCount(){
+        return channels.length;
+    }
+
+    public DeliveryMode getDeliveryMode(int channel){
+        return channels[channel].mode;
+    }
+
+    /**
+     * Offers payload compression in the next handshake, used if the server enables it too. See {@link #setCompression(boolean, byte[])}.
+     */
+    public void setCompression(boolean compression){
+        setCompression(compression, null);
+    }
+
+    /**
+     * Offers payload compression in the next handshake, used if the server enables it too.
+     * Messages are deflated one by one, and only sent compressed when that makes them smaller.
+     * Each compressing connection keeps a deflater and an inflater, around 300KB of native memory.
+     *
+     * @param dictionary bytes typical of the messages sent, e.g. a few sample messages, letting messages too small
+     * to compress on their own compress too. Only used if the remote has the same one, may be null.
+     */
+    public void setCompression(boolean compression, byte[] dictionary){
+        this.compression = compression;
+        this.compressionDictionary = dictionary == null ? null : dictionary.clone();
+    }
+
+    /**Sets the payload size below which messages are sent uncompressed, defaults to {@link RUDPConstants#COMPRESSION_THRESHOLD}.*/
+    public void setCompressionThreshold(int bytes){
+        this.compressionThreshold = bytes;
+    }
+
+    /**@return whether both sides agreed on compression in the handshake*/
+    public boolean isCompressing(){
+        return compressor != null;
+    }
+
+    /**Compresses the messages of a server connection, the client having offered it.*/
+    void enableCompression(byte[] dictionary, int threshold){
+        this.compressionThreshold = threshold;
+        this.compressor = new MessageCompressor(dictionary);
+    }
+
+    private void endCompression(){
+        MessageCompressor compressor = this.compressor;
+        if(compressor != null) compressor.end();
+    }
+
     private short getReliablePacketSequence(){
         short prev = sequenceReliable;
         sequenceReliable = NetUtils.shortIncrement(sequenceReliable);
@@ -129,26 +390,68 @@ public class RUDPClient{ //TODO remove use of ByteBuffers and use functions inst
             return;
         }
 
-        socket = new DatagramSocket();
-        socket.setSoTimeout(RUDPConstants.CLIENT_TIMEOUT_TIME);
+        transport = group != null ? group.open() : transportFactory.open(0);
+        transport.setTimeout(RUDPConstants.CLIENT_TIMEOUT_TIME);
+        resetState();
 
-        lastPacketReceiveTime = System.currentTimeMillis();
+        lastPacketReceiveTime = System.nanoTime();
 
         state = ConnectionState.STATE_CONNECTING;
         try{
-            //Send handshake packet
-            byte[] handshakePacket = new byte[9];
+            //Send handshake packet, the server replies with a cookie to echo in a second one
+            byte[] handshakePacket = new byte[RUDPConstants.HANDSHAKE_SIZE + RUDPConstants.HANDSHAKE_COOKIE_SIZE];
             handshakePacket[0] = PacketType.HANDSHAKE_START;
             NetUtils.writeBytes(handshakePacket, 1, RUDPConstants.VERSION_MAJOR);
             NetUtils.writeBytes(handshakePacket, 5, RUDPConstants.VERSION_MINOR);
-            sendPacketRaw(handshakePacket);
+            if(compression){
+                handshakePacket[9] = RUDPConstants.HANDSHAKE_COMPRESSION;
+                NetUtils.writeBytes(handshakePacket, 10, MessageCompressor.dictionaryId(compressionDictionary));
+            }
+            long handshakeTime = System.nanoTime();
+            //padded with the zeroed cookie, the server doesn't answer a handshake shorter than its reply
+            int handshakeLength = Math.max(RUDPConstants.HANDSHAKE_SIZE, RUDPConstants.HANDSHAKE_MIN_SIZE);
+            transport.send(handshakePacket, 0, handshakeLength, endpoint);
+
+            //Receive handshake response packet, sending the current handshake again while unanswered
+            long deadline = handshakeTime + TimeUnit.MILLISECONDS.toNanos(RUDPConstants.CLIENT_TIMEOUT_TIME);
+            long resendTime = handshakeTime + TimeUnit.MILLISECONDS.toNanos(RUDPConstants.HANDSHAKE_RESEND_MILLISECONDS);
+            boolean cookieReceived = false, resent = false;
+            byte[] data;
+            while(true){
+                long now = System.nanoTime();
+                if(now - deadline > 0) throw new SocketTimeoutException("Handshake timed out");
+                if(now - resendTime >= 0){
+                    resent = true;
+                    resendTime = now + TimeUnit.MILLISECONDS.toNanos(RUDPConstants.HANDSHAKE_RESEND_MILLISECONDS);
+                    transport.send(handshakePacket, 0, handshakeLength, endpoint);
+                }
+                transport.setTimeout((int) Math.max(TimeUnit.NANOSECONDS.toMillis(resendTime - now), 1));
 
-            //Receive handshake response packet
-            byte[] buffer = new byte[8196];
-            DatagramPacket datagramPacket = new DatagramPacket(buffer, buffer.length, address, port);
-            socket.receive(datagramPacket);
-            byte[] data = new byte[datagramPacket.getLength()];
-            System.arraycopy(datagramPacket.getData(), datagramPacket.getOffset(), data, 0, datagramPacket.getLength());
+                byte[][] response = new byte[1][];
+                try{
+                    transport.receive((buffer, sourceAddress, sourcePort) -> {
+                        response[0] = new byte[buffer.remaining()];
+                        buffer.get(response[0]);
+                    });
+                }catch(SocketTimeoutException e){
+                    continue;
+                }
+                data = response[0];
+
+                if(data.length == 1 + RUDPConstants.HANDSHAKE_COOKIE_SIZE && data[0] == PacketType.HANDSHAKE_COOKIE && !cookieReceived){
+                    cookieReceived = true;
+                    System.arraycopy(data, 1, handshakePacket, RUDPConstants.HANDSHAKE_SIZE, RUDPConstants.HANDSHAKE_COOKIE_SIZE);
+                    handshakeLength = handshakePacket.length;
+                    handshakeTime = System.nanoTime();
+                    resendTime = handshakeTime + TimeUnit.MILLISECONDS.toNanos(RUDPConstants.HANDSHAKE_RESEND_MILLISECONDS);
+                    resent = false;
+                    transport.send(handshakePacket, 0, handshakeLength, endpoint);
+                }else if(data.length > 0 && (data[0] == PacketType.HANDSHAKE_OK || data[0] == PacketType.HANDSHAKE_ERROR)){
+                    break;
+                }
+                //anything else is left over from a previous connection, or sent right after the reply and overtook it
+            }
+            transport.setTimeout(RUDPConstants.CLIENT_TIMEOUT_TIME);
 
             //Handle handshake response packet
             if(data[0] != PacketType.HANDSHAKE_OK){
@@ -160,20 +463,34 @@ public class RUDPClient{ //TODO remove use of ByteBuffers and use functions inst
 
             }else{
 
+                //a resent handshake may be answered for an earlier copy, only an unambiguous round trip is sampled
+                if(!resent){
+                    long sample = System.nanoTime() - handshakeTime;
+                    rtt.sample(sample);
+                    metrics.rtt(sample);
+                    sampleLatency(TimeUnit.NANOSECONDS.toMicros(sample));
+                }
+                //the server echoes the flag if it compresses too, with the id of the dictionary both have or 0
+                if(compression && data.length >= 6 && (data[1] & RUDPConstants.HANDSHAKE_COMPRESSION) != 0){
+                    compressor = new MessageCompressor(NetUtils.asInt(data, 2) == 0 ? null : compressionDictionary);
+                }
                 state = ConnectionState.STATE_CONNECTED;
-                initReceiveThread();
-                initPingThread();
-                initRelyThread();
-
-                reliableThread.start();
-                receiveThread.start();
-                pingThread.start();
+                if(group != null){
+                    group.attach(this, transport);
+                }else{
+                    initReceiveThread();
+                    receiveThread.start();
+                }
+                startKeepAlive();
+                probeMTU();
 
                 System.out.println("[RUDPClient] Connected !");
 
             }
         }catch(IOException e){
             state = ConnectionState.STATE_DISCONNECTED;
+            transport.close();
+            endCompression();
             throw e;
         }
     }
@@ -186,44 +503,257 @@ public class RUDPClient{ //TODO remove use of ByteBuffers and use functions inst
         if(state == ConnectionState.STATE_DISCONNECTED || state == ConnectionState.STATE_DISCONNECTING) return;
         byte[] reponse = reason.getBytes(StandardCharsets.UTF_8);
 
-        state = ConnectionState.STATE_DISCONNECTED;
-        socket.close();
+        flush();
+        if(type == ClientType.SERVER_CHILD){
+            sendPacket(PacketType.DISCONNECT_FROM_SERVER, reponse);
+            state = ConnectionState.STATE_DISCONNECTED;
+            server.remove(this);
+        }else{
+            sendPacket(PacketType.DISCONNECT_FROM_CLIENT, reponse);
+            state = ConnectionState.STATE_DISCONNECTED;
+            transport.close();
+        }
+        endCompression();
+
+        notifyHandler(handler -> handler.onDisconnected(reason, true));
+    }
+
+    /**
+     * Sends a message on a channel, reliably or not depending on the channel's {@link DeliveryMode}.
+     * Reliable messages larger than the path MTU are split into fragments, acknowledged and resent one by one,
+     * and reassembled before reaching the remote handler.
+     *
+     * @throws IllegalArgumentException if the channel does not exist, a reliable message exceeds
+     * {@link RUDPConstants#MAX_MESSAGE_SIZE}, or an unreliable one does not fit a datagram
+     */
+    public void send(int channel, byte[] data){
+        send(channel, ByteBuffer.wrap(data));
+    }
 
-        if(packetHandler != null) packetHandler.onDisconnected(reason, true);
+    public void send(int channel, byte[] data, int offset, int length){
+        send(channel, ByteBuffer.wrap(data, offset, length));
     }
 
+    /**Sends the bytes between the position and the limit, leaving the position at the limit. The buffer may be reused once this returns.*/
+    public void send(int channel, ByteBuffer data){
+        Channel[] channels = this.channels;
+        if(channel < 0 || channel >= channels.length) throw new IllegalArgumentException("Unknown channel " + channel);
+        sendMessage(channel, data, channels[channel].mode.reliable);
+    }
+
+    /**Sends a reliable message on channel 0.*/
     public void sendReliablePacket(byte[] data){
-        sendReliablePacket(PacketType.RELIABLE, data);
+        sendMessage(0, ByteBuffer.wrap(data), true);
+    }
+
+    public void sendReliablePacket(byte[] data, int offset, int length){
+        sendMessage(0, ByteBuffer.wrap(data, offset, length), true);
+    }
+
+    /**Sends the bytes between the position and the limit reliably on channel 0, leaving the position at the limit.*/
+    public void sendReliablePacket(ByteBuffer data){
+        sendMessage(0, data, true);
     }
 
     public void sendReliablePacket(byte packetType, byte[] data){
+        if(packetType == PacketType.RELIABLE) sendMessage(0, ByteBuffer.wrap(data), true);
+        else sendReliableRaw(packetType, data);
+    }
+
+    /**Copies the message once, right after the headers of the packet carrying it.*/
+    private void sendMessage(int channel, ByteBuffer data, boolean reliable){
+        Channel[] channels = this.channels;
+        if(channel < 0 || channel >= channels.length) throw new IllegalArgumentException("Unknown channel " + channel);
+        int length = data.remaining();
+        int header = RUDPConstants.PACKET_HEADER_SIZE + RUDPConstants.MESSAGE_HEADER_SIZE;
+        int mtu = this.mtu;
+        if(!reliable) checkSize(RUDPConstants.MESSAGE_HEADER_SIZE + length);
         if(state == ConnectionState.STATE_DISCONNECTED) return;
-        byte[] packet = new byte[data.length + 3];
-        long timeMS = System.currentTimeMillis();
-        short seq = getReliablePacketSequence();
+        short seq = channels[channel].nextSequence(reliable);
+        MessageCompressor compressor = this.compressor;
+        boolean compress = compressor != null && length >= compressionThreshold;
+
+        if(reliable && !compress && header + length > mtu){
+            //fragments split the whole message, channel header included
+            byte[] message = new byte[RUDPConstants.MESSAGE_HEADER_SIZE + length];
+            message[0] = (byte) channel;
+            NetUtils.writeBytes(message, 1, seq);
+            data.get(message, RUDPConstants.MESSAGE_HEADER_SIZE, length);
+            sendFragmented(message, mtu - RUDPConstants.PACKET_HEADER_SIZE - RUDPConstants.FRAGMENT_HEADER_SIZE);
+            return;
+        }
 
-        packet[0] = packetType;
-        NetUtils.writeBytes(packet, 1, seq);
-        System.arraycopy(data, 0, packet, 3, data.length);
-        if(type == ClientType.SERVER_CHILD){
-            server.sendPacket(packet, address, port);
-        }else{
-            DatagramPacket dpacket = new DatagramPacket(packet, packet.length, address, port);
-            try{
-                socket.send(dpacket);
-            }catch(IOException e){
-                e.printStackTrace();
+        byte[] packet = new byte[header + length];
+        packet[0] = reliable ? PacketType.RELIABLE : PacketType.UNRELIABLE;
+        packet[RUDPConstants.PACKET_HEADER_SIZE] = (byte) channel;
+        NetUtils.writeBytes(packet, RUDPConstants.PACKET_HEADER_SIZE + 1, seq);
+        data.get(packet, header, length);
+
+        if(compress){
+            byte[] compressed = compressor.compress(packet, header);
+            if(compressed != packet){
+                compressed[RUDPConstants.PACKET_HEADER_SIZE] |= RUDPConstants.COMPRESSED_MESSAGE_FLAG;
+                packet = compressed;
+            }
+            if(reliable && packet.length > mtu){
+                sendFragmented(Arrays.copyOfRange(packet, RUDPConstants.PACKET_HEADER_SIZE, packet.length), mtu - RUDPConstants.PACKET_HEADER_SIZE - RUDPConstants.FRAGMENT_HEADER_SIZE);
                 return;
             }
         }
-        synchronized(packetsSent){
-            packetsSent.add(new ReliablePacket(seq, timeMS, packet));
+
+        if(reliable) queueReliable(packet);
+        else sendUnreliable(packet);
+    }
+
+    /**
+     * Sends a message encoded once for many connections. Unreliable packets are patched and sent in place. Reliable
+     * ones are copied, one packet per recipient: the headers written when the packet is sent and resent differ per
+     * connection, and the copy is kept until acked. A channel this connection lacks or uses with another delivery
+     * mode is counted in {@link Metrics#getMismatched()} instead of failing the other recipients.
+     */
+    void send(EncodedMessage message){
+        if(state != ConnectionState.STATE_CONNECTED) return;
+        Channel[] channels = this.channels;
+        if(message.channel >= channels.length || channels[message.channel].mode.reliable != message.reliable){
+            metrics.mismatched();
+            return;
+        }
+        byte[] packet = message.packet(compressor, compressionThreshold);
+        if(message.reliable && packet.length > mtu){
+            sendMessage(message.channel, message.payload(), true);
+            return;
+        }
+
+        if(message.reliable) packet = packet.clone();
+        NetUtils.writeBytes(packet, RUDPConstants.PACKET_HEADER_SIZE + 1, channels[message.channel].nextSequence(message.reliable));
+        if(message.reliable) queueReliable(packet);
+        else sendUnreliable(packet);
+    }
+
+    private void sendReliableRaw(byte packetType, byte[] data){
+        if(state == ConnectionState.STATE_DISCONNECTED) return;
+        checkSize(data.length);
+        byte[] packet = new byte[data.length + RUDPConstants.PACKET_HEADER_SIZE];
+
+        packet[0] = packetType;
+        System.arraycopy(data, 0, packet, RUDPConstants.PACKET_HEADER_SIZE, data.length);
+        queueReliable(packet);
+    }
+
+    /**Takes the next reliable seq for a packet with its headers and payload in place, and queues it.*/
+    private void queueReliable(byte[] packet){
+        synchronized(sendQueue){
+            //seqs are taken in queue order so packets leave in sequence
+            short seq = getReliablePacketSequence();
+            NetUtils.writeBytes(packet, 1, seq);
+            sendQueue.add(new ReliablePacket(seq, packet));
+        }
+        flushSendQueue();
+    }
+
+    private void sendFragmented(byte[] data, int fragmentSize){
+        if(data.length > RUDPConstants.MAX_MESSAGE_SIZE){
+            throw new IllegalArgumentException("Message of " + data.length + " bytes exceeds the maximum of " + RUDPConstants.MAX_MESSAGE_SIZE);
+        }
+        int count = (data.length + fragmentSize - 1) / fragmentSize;
+        int header = RUDPConstants.PACKET_HEADER_SIZE + RUDPConstants.FRAGMENT_HEADER_SIZE;
+
+        synchronized(sendQueue){
+            //fragments take consecutive seqs, the receiver finds the message start from seq - index
+            for(int i = 0; i < count; i++){
+                int offset = i * fragmentSize;
+                int length = Math.min(fragmentSize, data.length - offset);
+                byte[] packet = new byte[header + length];
+
+                packet[0] = PacketType.FRAGMENT;
+                short seq = getReliablePacketSequence();
+                NetUtils.writeBytes(packet, 1, seq);
+                NetUtils.writeBytes(packet, RUDPConstants.PACKET_HEADER_SIZE, (short) i);
+                NetUtils.writeBytes(packet, RUDPConstants.PACKET_HEADER_SIZE + 2, (short) count);
+                System.arraycopy(data, offset, packet, header, length);
+                sendQueue.add(new ReliablePacket(seq, packet));
+            }
+        }
+        flushSendQueue();
+    }
+
+    /**
+     * Sends queued reliable packets while the congestion window and the pacer allow it. Slots are taken under the
+     * sendQueue monitor, the packets are sent once it is released so acks never wait on socket I/O to take it.
+     */
+    private void flushSendQueue(){
+        ArrayList<ReliablePacket> sending = null;
+        synchronized(sendQueue){
+            long now = System.nanoTime();
+            while(!sendQueue.isEmpty() && inFlightCount.get() < congestion.getWindow()){
+                ReliablePacket rpacket = sendQueue.peek();
+                int index = rpacket.seq & (RUDPConstants.SEND_WINDOW - 1);
+                //the oldest packet in flight is a whole window behind, resumed once it is acked or expired
+                if(inFlight.get(index) != null) break;
+
+                long wait = pacer.acquire(congestion.getWindow(), rtt.getSrtt(), now);
+                if(wait > 0){
+                    if(!drainScheduled){
+                        drainScheduled = true;
+                        getTimer().schedule(drainTask, wait, TimeUnit.NANOSECONDS);
+                    }
+                    break;
+                }
+                sendQueue.poll();
+                rpacket.sendTime = now;
+                inFlight.set(index, rpacket);
+                inFlightCount.incrementAndGet();
+                sentReliable++;
+                if(sending == null) sending = new ArrayList<>();
+                sending.add(rpacket);
+            }
+        }
+        if(sending == null) return;
+
+        for(int i = 0; i < sending.size(); i++){
+            ReliablePacket rpacket = sending.get(i);
+            rpacket.batch = sendOrBatch(rpacket.data, rpacket);
+            getTimer().schedule(rpacket, rtt.getRto(), TimeUnit.NANOSECONDS);
         }
-        sentReliable++;
     }
 
+    /**Sends an unreliable message on channel 0.*/
     public void sendPacket(byte[] data){
-        sendPacket(PacketType.UNRELIABLE, data);
+        sendMessage(0, ByteBuffer.wrap(data), false);
+    }
+
+    public void sendPacket(byte[] data, int offset, int length){
+        sendMessage(0, ByteBuffer.wrap(data, offset, length), false);
+    }
+
+    /**Sends the bytes between the position and the limit unreliably on channel 0, leaving the position at the limit.*/
+    public void sendPacket(ByteBuffer data){
+        sendMessage(0, data, false);
+    }
+
+    /**
+     * Sends the latest state of something replicated, e.g. the world state of a game tick, serialized by the caller.
+     * Each snapshot is encoded against the newest one the remote acknowledged, as the bytes that changed since,
+     * and sent unreliably: a lost snapshot is never resent, the next one supersedes it. The remote only receives
+     * snapshots newer than the last one it got, in {@link PacketHandler#onSnapshotReceived(ByteBuffer)}.
+     * Works best when the same bytes keep the same place from one snapshot to the next.
+     *
+     * @throws IllegalArgumentException if the snapshot could not fit a datagram without a baseline
+     */
+    public void sendSnapshot(byte[] snapshot){
+        sendSnapshot(ByteBuffer.wrap(snapshot));
+    }
+
+    /**Sends the bytes between the position and the limit as a snapshot, leaving the position at the limit. See {@link #sendSnapshot(byte[])}.*/
+    public void sendSnapshot(ByteBuffer snapshot){
+        int size = RUDPConstants.SNAPSHOT_HEADER_SIZE + DeltaCodec.maxEncodedLength(snapshot.remaining());
+        if(size + RUDPConstants.PACKET_HEADER_SIZE > RUDPConstants.RECEIVE_MAX_SIZE){
+            throw new IllegalArgumentException("Snapshot of " + snapshot.remaining() + " bytes may exceed the datagram limit of " + RUDPConstants.RECEIVE_MAX_SIZE);
+        }
+        if(state == ConnectionState.STATE_DISCONNECTED) return;
+        byte[] packet = snapshots.encode(snapshot, RUDPConstants.PACKET_HEADER_SIZE);
+        packet[0] = PacketType.SNAPSHOT;
+        sendUnreliable(packet);
     }
 
     public void requestRemoteStats(){
@@ -231,250 +761,694 @@ public class RUDPClient{ //TODO remove use of ByteBuffers and use functions inst
     }
 
     void initialize(){
-        initRelyThread();
-        reliableThread.start();
         state = ConnectionState.STATE_CONNECTED;
-        if(packetHandler != null) packetHandler.onConnection();
+        startKeepAlive();
+        probeMTU();
+        notifyHandler(PacketHandler::onConnection);
     }
 
     private void initReceiveThread(){
+        Transport transport = this.transport;
         receiveThread = new Thread(() -> {
-            while(state == ConnectionState.STATE_CONNECTED){
-                byte[] buffer = new byte[RUDPConstants.RECEIVE_MAX_SIZE];
-                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
-
+            PacketReceiver receiver = (data, sourceAddress, sourcePort) -> {
                 try{
-                    socket.receive(packet);
+                    handlePacket(data);
+                }catch(Exception e){
+                    System.err.print("[RUDPClient] An error occured while handling packet:");
+                    e.printStackTrace();
+                }
+            };
+            while(state == ConnectionState.STATE_CONNECTED && !transport.isClosed()){
+                try{
+                    transport.receive(receiver);
                 }catch(SocketTimeoutException e){
                     state = ConnectionState.STATE_DISCONNECTED;
                     disconnected("Connection timed out");
+                    transport.close();
                     return;
                 }catch(IOException e){
-                    if(state == ConnectionState.STATE_DISCONNECTED) return;
+                    if(state == ConnectionState.STATE_DISCONNECTED || transport.isClosed()) return;
                     System.err.println("[RUDPClient] An error as occured while receiving a packet: ");
                     e.printStackTrace();
                 }
-                byte[] data = new byte[packet.getLength()];
-                System.arraycopy(packet.getData(), packet.getOffset(), data, 0, packet.getLength());
-                try{
-                    handlePacket(data);
-                }catch(Exception e){
-                    System.err.print("[RUDPClient] An error occured while handling packet:");
-                    e.printStackTrace();
-                }
-                packet.setLength(RUDPConstants.RECEIVE_MAX_SIZE);
             }
         }, "RUDPClient receive thread");
     }
 
-    private void initPingThread(){
-        pingThread = new Thread(() -> {
-            try{
-                while(state == ConnectionState.STATE_CONNECTED){
-                    byte[] pingPacket = new byte[8];
-                    NetUtils.writeBytes(pingPacket, 0, System.currentTimeMillis());
-                    sendPacket(PacketType.PING_REQUEST, pingPacket);
-
-                    Thread.sleep(RUDPConstants.PING_INTERVAL);
-                }
-            }catch(InterruptedException e){
-                e.printStackTrace();
-            }
-        }, "RUDPClient ping thread");
-    }
-
-    private void initRelyThread(){
-        reliableThread = new Thread(() -> {
-            try{
-                while(state == ConnectionState.STATE_CONNECTING || state == ConnectionState.STATE_CONNECTED || (state == ConnectionState.STATE_DISCONNECTING && !packetsSent.isEmpty())){
-                    synchronized(packetsSent){
-                        long currentMS = System.currentTimeMillis();
-                        long minMS = currentMS + (latency * 2);
-                        int i = 0;
-                        while(i < packetsSent.size()){
-                            ReliablePacket rpacket = packetsSent.get(i);
-
-                            if(rpacket.dateMS + RUDPConstants.PACKET_TIMEOUT_TIME_MILLISECONDS < currentMS){
-                                packetsSent.remove(i);
-                                continue;
-                            }
-                            if(rpacket.minDateMS < currentMS){
-                                rpacket.minDateMS = minMS;
-                                sendPacketRaw(rpacket.data);
-                            }
-                            i++;
-                        }
-                    }
-
-                    if(state == ConnectionState.STATE_DISCONNECTING && packetsSent.size() == 0){
-                        state = ConnectionState.STATE_DISCONNECTED;
-                        server.remove(this);
-                        return;
-                    }
-                    Thread.sleep(20);
-                }
-                state = ConnectionState.STATE_DISCONNECTED;
-                if(type == ClientType.SERVER_CHILD) server.remove(instance);
-            }catch(InterruptedException e){
-                e.printStackTrace();
-            }
-        }, "RUDPClient rely thread");
+    /**Schedules keep-alives on the shared timer, replacing those of a previous connection.*/
+    private void startKeepAlive(){
+        lastPacketSendTime = System.nanoTime();
+        keepAlive = new KeepAliveTask();
+        getTimer().schedule(keepAlive, RUDPConstants.PING_INTERVAL);
     }
 
     void disconnected(String reason){
         state = ConnectionState.STATE_DISCONNECTED;
-        if(packetHandler != null) packetHandler.onDisconnected(reason, false);
+        endCompression();
+        notifyHandler(handler -> handler.onDisconnected(reason, false));
         if(type == ClientType.SERVER_CHILD) server.remove(this);
     }
 
+    /**
+     * Sends one padded probe per candidate datagram size, every probe acknowledged by the remote raises the MTU.
+     * Sizes still above the MTU are probed again on the timer, so a single lost probe doesn't pin it at MTU_MIN.
+     */
+    private void probeMTU(){
+        mtuProbe = new ProbeTask();
+        mtuProbe.run();
+    }
+
+    private static void checkSize(int length){
+        if(length + RUDPConstants.PACKET_HEADER_SIZE > RUDPConstants.RECEIVE_MAX_SIZE){
+            throw new IllegalArgumentException("Packet of " + length + " bytes exceeds the datagram limit of " + RUDPConstants.RECEIVE_MAX_SIZE + ", send it reliably to fragment it");
+        }
+    }
+
     void sendPacket(byte packetType, byte[] data){
         if(state == ConnectionState.STATE_DISCONNECTED) return;
-        byte[] packet = new byte[data.length + 3];
-        short seq = getUnreliablePacketSequence();
+        checkSize(data.length);
+        byte[] packet = new byte[data.length + RUDPConstants.PACKET_HEADER_SIZE];
 
         packet[0] = packetType;
-        NetUtils.writeBytes(packet, 1, seq);
-        System.arraycopy(data, 0, packet, 3, data.length);
+        System.arraycopy(data, 0, packet, RUDPConstants.PACKET_HEADER_SIZE, data.length);
+        sendUnreliable(packet);
+    }
 
-        if(type == ClientType.SERVER_CHILD) server.sendPacket(packet, address, port);
-        else{
-            DatagramPacket dpacket = new DatagramPacket(packet, packet.length, address, port);
-            try{
-                socket.send(dpacket);
-            }catch(IOException e){
-                e.printStackTrace();
-                return;
-            }
-        }
+    /**Stamps the next unreliable seq on a packet with its type and payload in place, and sends it.*/
+    private void sendUnreliable(byte[] packet){
+        if(state == ConnectionState.STATE_DISCONNECTED) return;
+        NetUtils.writeBytes(packet, 1, getUnreliablePacketSequence());
+
+        if(packet[0] == PacketType.UNRELIABLE || packet[0] == PacketType.SNAPSHOT) sendOrBatch(packet, null);
+        else sendPacketRaw(packet, packet.length);
         sent++;
     }
 
     /**
      * Handles received packet assuming server won't send any empty packets. (data.len != 0)
      *
-     * @param data Header and payload of received packet
+     * @param data Header and payload of received packet, between position 0 and the limit. Only valid during the call.
      */
-    void handlePacket(byte[] data){
-        if((state == ConnectionState.STATE_DISCONNECTING || state == ConnectionState.STATE_DISCONNECTED) && data[0] != PacketType.RELY)
-            return;
+    void handlePacket(ByteBuffer data){
+        metrics.received(data.limit());
+        if(data.limit() < RUDPConstants.PACKET_HEADER_SIZE) return;
+        byte packetType = data.get(0);
 
-        lastPacketReceiveTime = System.currentTimeMillis(); //Assume packet received when handling started
+        //every packet carries the acks of the remote side
+        handleAcks(data.getShort(3), data.getInt(5));
 
-        //Counter
-        if(RUDPConstants.isPacketReliable(data[0])){
+        if(state == ConnectionState.STATE_DISCONNECTING || state == ConnectionState.STATE_DISCONNECTED)
+            return;
 
-            //Send rely packet
-            byte[] l = new byte[]{data[1], data[2]};
-            sendPacket(PacketType.RELY, l);
+        long now = System.nanoTime();
+        lastPacketReceiveTime = now; //Assume packet received when handling started
+        handleTimestamps(data.getInt(9), data.getInt(13), now);
+
+        if(packetType == PacketType.BATCH){
+            //entries: payload length, type, seq and payload
+            int end = data.limit();
+            int position = RUDPConstants.PACKET_HEADER_SIZE;
+            while(position + RUDPConstants.BATCH_ENTRY_HEADER_SIZE <= end && state != ConnectionState.STATE_DISCONNECTED){
+                int next = position + RUDPConstants.BATCH_ENTRY_HEADER_SIZE + (data.getShort(position) & 0xFFFF);
+                if(next > end) break;
+                data.limit(next);
+                handleMessage(data.get(position + 2), data.getShort(position + 3), data, position + RUDPConstants.BATCH_ENTRY_HEADER_SIZE);
+                data.limit(end);
+                position = next;
+            }
+        }else{
+            handleMessage(packetType, data.getShort(1), data, RUDPConstants.PACKET_HEADER_SIZE);
+        }
+    }
 
-            //save to received packet list
-            short seq = NetUtils.asShort(data, 1);
-            Long currentTime = System.currentTimeMillis();
-            Long packetOverTime = currentTime + RUDPConstants.PACKET_STORE_TIME_MILLISECONDS;
+    /**
+     * Handles one packet, received alone or packed in a batch.
+     *
+     * @param data buffer holding the payload, between offset and the limit. Only valid during the call.
+     */
+    private void handleMessage(byte packetType, short seq, ByteBuffer data, int offset){
+        //Counter
+        if(RUDPConstants.isPacketReliable(packetType)){
+            //not acked, the remote resends it once the reorder window moved
+            if(packetType == PacketType.RELIABLE && !fitsWindow(data, offset)) return;
 
-            Iterator<Entry<Short, Long>> it = packetsReceived.entrySet().iterator();
-            while(it.hasNext()){
-                Entry<Short, Long> storedSeq = it.next();
-                if(storedSeq.getKey() == seq){
-                    return;
-                }
-                if(storedSeq.getValue() < currentTime) it.remove(); //XXX use another thread ?
+            //duplicates are acked again, the previous ack may have been lost
+            if(!recordReceived(seq)){
+                metrics.duplicate();
+                return;
             }
+
             receivedReliable++;
-            packetsReceived.put(seq, packetOverTime);
         }else{
             received++;
         }
 
-        if(data[0] == PacketType.RELY){
-            synchronized(packetsSent){
-                for(int i = 0; i < packetsSent.size(); i++){
-                    if(packetsSent.get(i).seq == NetUtils.asShort(data, 3)){
-                        packetsSent.remove(i);
-                        return;
-                    }
-                }
-                if(state == ConnectionState.STATE_DISCONNECTING && packetsSent.size() == 0){
-                    state = ConnectionState.STATE_DISCONNECTED;
-                    server.remove(this);
-                }
-            }
-        }else if(data[0] == PacketType.PING_REQUEST){
-            short seq = NetUtils.asShort(data, 1);
-            if(NetUtils.sequenceGreaterThan(seq, lastPingSeq)){
-                lastPingSeq = seq;
-                byte[] l = new byte[]{data[3], data[4], data[5], data[6], data[7], data[8], data[9], data[10]};
-                sendPacket(PacketType.PING_RESPONSE, l);//sending time received (long) // ping packet format: [IN:] CMD_PING_REPONSE seqId sendMilliseconds
-            }
-        }else if(data[0] == PacketType.PING_RESPONSE){
-            short seq = NetUtils.asShort(data, 1);
-            if(NetUtils.sequenceGreaterThan(seq, lastPingSeq)){
-                lastPingSeq = seq;
-                latency = (int) (System.currentTimeMillis() - NetUtils.asLong(data, 3));
-                if(latency < 5) latency = 5;
-            }
-        }else if(data[0] == PacketType.DISCONNECT_FROM_SERVER){
-            byte[] packetData = new byte[data.length - 3];
-            System.arraycopy(data, 3, packetData, 0, data.length - 3);
-            disconnected(new String(packetData, StandardCharsets.UTF_8));
-        }else if(data[0] == PacketType.RELIABLE){
-
-            //handle reliable packet
-            if(packetHandler != null){
-                try{
-                    packetHandler.onPacketReceived(data, true); //pass raw packet payload
-                }catch(Exception e){
-                    //TODO why the heck is this simply supressed?
-                    e.printStackTrace();
-                }
-            }
-        }else if(data[0] == PacketType.PACKETSSTATS_REQUEST){
+        if(packetType == PacketType.RELY || packetType == PacketType.PING_REQUEST){
+            //standalone ack or keep-alive, the header was all there was to handle
+        }else if(packetType == PacketType.DISCONNECT_FROM_SERVER){
+            disconnected(new String(copyPayload(data, offset), StandardCharsets.UTF_8));
+        }else if(packetType == PacketType.MTU_PROBE){
+            byte[] size = new byte[4];
+            NetUtils.writeBytes(size, 0, data.limit()); //probes are never batched, the limit is the datagram size
+            sendPacket(PacketType.MTU_PROBE_ACK, size);
+        }else if(packetType == PacketType.MTU_PROBE_ACK){
+            if(data.limit() < offset + 4) return;
+            int size = data.getInt(offset);
+            if(size > mtu && size <= RUDPConstants.RECEIVE_MAX_SIZE) mtu = size;
+        }else if(packetType == PacketType.FRAGMENT){
+            if(data.limit() < offset + RUDPConstants.FRAGMENT_HEADER_SIZE) return;
+            int index = data.getShort(offset) & 0xFFFF;
+            int count = data.getShort(offset + 2) & 0xFFFF;
+            byte[] message = fragments.add(seq, index, count, data,
+                offset + RUDPConstants.FRAGMENT_HEADER_SIZE, System.nanoTime());
+
+            if(message != null) deliverMessage(ByteBuffer.wrap(message), 0, true);
+        }else if(packetType == PacketType.SNAPSHOT){
+            int id = snapshots.receive(data, offset);
+            if(id < 0) return;
+            //acked even if stale, the sender may use any snapshot received as a baseline
+            byte[] ack = new byte[2];
+            NetUtils.writeBytes(ack, 0, (short) id);
+            sendPacket(PacketType.SNAPSHOT_ACK, ack);
+            ByteBuffer snapshot = snapshots.deliver(id);
+            if(snapshot != null) dispatchSnapshot(snapshot);
+        }else if(packetType == PacketType.SNAPSHOT_ACK){
+            if(data.limit() >= offset + 2) snapshots.acknowledge(data.getShort(offset));
+        }else if(packetType == PacketType.RELIABLE){
+            deliverMessage(data, offset, true);
+        }else if(packetType == PacketType.UNRELIABLE){
+            deliverMessage(data, offset, false);
+        }else if(packetType == PacketType.PACKETSSTATS_REQUEST){
             byte[] packet = new byte[17];
             NetUtils.writeBytes(packet, 0, sent + 1); // Add one to count the current packet
             NetUtils.writeBytes(packet, 4, sentReliable);
             NetUtils.writeBytes(packet, 8, received);
             NetUtils.writeBytes(packet, 12, receivedReliable);
             sendPacket(PacketType.PACKETSSTATS_RESPONSE, packet);
-        }else if(data[0] == PacketType.PACKETSSTATS_RESPONSE){
-            int sentRemote = NetUtils.asInt(data, 3);
-            int sentRemoteR = NetUtils.asInt(data, 7);
-            int receivedRemote = NetUtils.asInt(data, 11);
-            int receivedRemoteR = NetUtils.asInt(data, 15);
-            if(packetHandler != null) packetHandler.onRemoteStatsReturned(sentRemote, sentRemoteR, receivedRemote, receivedRemoteR);
+        }else if(packetType == PacketType.PACKETSSTATS_RESPONSE){
+            if(data.limit() < offset + 16) return;
+            int sentRemote = data.getInt(offset);
+            int sentRemoteR = data.getInt(offset + 4);
+            int receivedRemote = data.getInt(offset + 8);
+            int receivedRemoteR = data.getInt(offset + 12);
+            notifyHandler(handler -> handler.onRemoteStatsReturned(sentRemote, sentRemoteR, receivedRemote, receivedRemoteR));
         }else if(packetHandler != null){
+            byte[] packet = toHandlerPacket(packetType, seq, data, offset);
+            notifyHandler(handler -> {
+                try{
+                    handler.onPacketReceived(packet, false); //pass raw packet payload
+                }catch(Exception e){
+                    //TODO why the heck is this simply supressed?
+                    e.printStackTrace();
+                }
+            });
+        }
+    }
+
+    /**Delivers a message received on a channel, applying the ordering or sequencing of its delivery mode.*/
+    private void deliverMessage(ByteBuffer data, int offset, boolean reliable){
+        if(data.limit() - offset < RUDPConstants.MESSAGE_HEADER_SIZE) return;
+        Channel[] channels = this.channels;
+        int channelId = data.get(offset) & 0xFF;
+        if((channelId & RUDPConstants.COMPRESSED_MESSAGE_FLAG) != 0){
+            MessageCompressor compressor = this.compressor;
+            if(compressor == null) return;
+            data = compressor.decompress(data, offset);
+            if(data == null) return;
+            offset = 0;
+            channelId &= ~RUDPConstants.COMPRESSED_MESSAGE_FLAG;
+        }
+        if(channelId >= channels.length) return;
+
+        Channel channel = channels[channelId];
+        short seq = data.getShort(offset + 1);
+        //the channel byte becomes the type, the message then reads as the handler format without being copied
+        data.put(offset, reliable ? PacketType.RELIABLE : PacketType.UNRELIABLE);
+        ByteBuffer view = data.duplicate();
+        view.position(offset);
+        view = view.slice();
+
+        if(!reliable){
+            if(channel.mode != DeliveryMode.UNRELIABLE_SEQUENCED || channel.acceptSequenced(seq)) dispatch(channelId, view, false);
+        }else if(channel.mode != DeliveryMode.RELIABLE_ORDERED){
+            dispatch(channelId, view, true);
+        }else if(channel.deliverNext(seq)){
+            dispatch(channelId, view, true);
+            for(byte[] next = channel.pollOrdered(); next != null; next = channel.pollOrdered()){
+                dispatch(channelId, ByteBuffer.wrap(next), true);
+            }
+        }else{
+            //held past this call, so copied out of the receive buffer
+            byte[] packet = new byte[view.limit()];
+            view.get(packet);
+            channel.buffer(seq, packet);
+        }
+    }
+
+    private boolean fitsWindow(ByteBuffer data, int offset){
+        if(data.limit() - offset < RUDPConstants.MESSAGE_HEADER_SIZE) return true;
+        Channel[] channels = this.channels;
+        int channelId = data.get(offset) & 0xFF & ~RUDPConstants.COMPRESSED_MESSAGE_FLAG;
+        return channelId >= channels.length || channels[channelId].fitsWindow(data.getShort(offset + 1));
+    }
+
+    /**@param packet message in the handler format starting at index 0*/
+    private void dispatch(int channel, ByteBuffer packet, boolean reliable){
+        PacketHandler handler = packetHandler;
+        if(handler == null) return;
+        SerialExecutor mailbox = handlerMailbox;
+        if(mailbox == null){
+            packet.position(RudpPacket.HEADER_SIZE);
+            dispatch(handler, channel, packet.asReadOnlyBuffer(), reliable);
+            return;
+        }
+        ByteBuffer copy = ByteBuffer.allocate(packet.limit());
+        packet.position(0);
+        copy.put(packet).position(RudpPacket.HEADER_SIZE);
+        ByteBuffer view = copy.asReadOnlyBuffer();
+        mailbox.execute(() -> dispatch(handler, channel, view, reliable));
+    }
+
+    /**@param snapshot kept as a baseline, copied if the handler runs later*/
+    private void dispatchSnapshot(ByteBuffer snapshot){
+        PacketHandler handler = packetHandler;
+        if(handler == null) return;
+        SerialExecutor mailbox = handlerMailbox;
+        ByteBuffer view = snapshot;
+        if(mailbox != null){
+            view = ByteBuffer.allocate(snapshot.remaining());
+            view.put(snapshot).flip();
+        }
+        ByteBuffer readOnly = view.asReadOnlyBuffer();
+        notifyHandler(h -> {
             try{
-                packetHandler.onPacketReceived(data, false); //pass raw packet payload
+                h.onSnapshotReceived(readOnly);
             }catch(Exception e){
-                //TODO why the heck is this simply supressed?
                 e.printStackTrace();
             }
+        });
+    }
+
+    private static void dispatch(PacketHandler handler, int channel, ByteBuffer packet, boolean reliable){
+        try{
+            handler.onPacketReceived(channel, packet, reliable);
+        }catch(Exception e){
+            //TODO why the heck is this simply supressed?
+            e.printStackTrace();
+        }
+    }
+
+    /**Calls the handler on the handler executor if one is set, directly otherwise.*/
+    private void notifyHandler(Consumer<PacketHandler> callback){
+        PacketHandler handler = packetHandler;
+        if(handler == null) return;
+        SerialExecutor mailbox = handlerMailbox;
+        if(mailbox == null) callback.accept(handler);
+        else mailbox.execute(() -> callback.accept(handler));
+    }
+
+    /**
+     * Marks a reliable seq as received in the ack state and makes sure an ack goes out soon:
+     * piggybacked on the next outgoing packet, or standalone once the delayed-ack timer fires.
+     * A seq older than the ack state reaches, fresh or duplicate, is acked right away on its own. Seqs behind the receive
+     * window are dropped unacked, they can't be in flight anymore since the SEND_WINDOW of the remote is smaller.
+     *
+     * @return false if the seq is a duplicate
+     */
+    private boolean recordReceived(short seq){
+        boolean fresh = receiveWindow.add(seq);
+        if(((receiveWindow.getHighest() - seq) & 0xFFFF) > 32 && receiveWindow.contains(seq)){
+            sendAck(seq);
+        }
+        ackState = ((receiveWindow.getHighest() & 0xFFFFL) << 32) | (receiveWindow.getAckBits() & 0xFFFF_FFFFL);
+
+        if(++unackedReceived >= RUDPConstants.ACK_IMMEDIATE_THRESHOLD){
+            sendPacket(PacketType.RELY, EMPTY);
+        }else if(!ackScheduled){
+            ackScheduled = true;
+            getTimer().schedule(ackTask, RUDPConstants.ACK_DELAY_MILLISECONDS);
+        }
+        return fresh;
+    }
+
+    /**Sends a standalone ack naming the seq, with the bitfield of the 32 seqs before it, leaving the ack state as it is.*/
+    private void sendAck(short seq){
+        if(state == ConnectionState.STATE_DISCONNECTED) return;
+        byte[] packet = new byte[RUDPConstants.PACKET_HEADER_SIZE];
+        packet[0] = PacketType.RELY;
+        NetUtils.writeBytes(packet, 1, getUnreliablePacketSequence());
+        sendPacketRaw(packet, packet.length, ((seq & 0xFFFFL) << 32) | (receiveWindow.getAckBits(seq) & 0xFFFF_FFFFL));
+        sent++;
+    }
+
+    /**
+     * Keeps the send time of the remote to echo it, and measures the round trip from the echo of ours.
+     *
+     * @param timestamp send time of the packet in the remote's clock
+     * @param echo send time of ours the remote received last, plus the time it held it; 0 if none
+     */
+    private void handleTimestamps(int timestamp, int echo, long now){
+        int time = timestamp(now);
+        remoteTimestamp = ((long) timestamp << 32) | (time & 0xFFFF_FFFFL);
+        if(echo == 0) return;
+        int sample = time - echo;
+        if(sample >= 0 && sample <= TimeUnit.MILLISECONDS.toMicros(RUDPConstants.CLIENT_TIMEOUT_TIME_MILLISECONDS)) sampleLatency(sample);
+    }
+
+    /**Updates the latency with a round trip in microseconds. Only used by the receiving thread, and connect().*/
+    private void sampleLatency(long micros){
+        //every packet carries a sample, smoothed with the SRTT gain so single delayed packets barely move it
+        smoothedLatency = smoothedLatency < 0 ? micros : smoothedLatency + (micros - smoothedLatency) / 8;
+        latency = (int) Math.max(TimeUnit.MICROSECONDS.toMillis(smoothedLatency), 5);
+    }
+
+    /**@return microseconds of a monotonic clock, wrapping around and never 0; only differences are meaningful*/
+    private static int timestamp(long nanos){
+        int time = (int) TimeUnit.NANOSECONDS.toMicros(nanos);
+        return time == 0 ? 1 : time;
+    }
+
+    /**
+     * Removes every in-flight packet acknowledged by a received header.
+     * A remote that has not received anything yet reports seq -1 with an empty bitfield.
+     *
+     * @param ack latest reliable seq received by the remote
+     * @param bits bit n set if seq (ack - n - 1) was received too
+     */
+    private void handleAcks(short ack, int bits){
+        if(inFlightCount.get() == 0) return;
+        long now = System.nanoTime();
+        boolean acked = acknowledge(ack, now);
+        for(int n = 0; bits != 0; n++, bits >>>= 1){
+            if((bits & 1) != 0) acked |= acknowledge((short) (ack - n - 1), now);
+        }
+        if(!acked) return;
+        checkDisconnecting();
+        flushSendQueue();
+    }
+
+    /**@return whether the seq was in flight and is now acknowledged*/
+    private boolean acknowledge(short seq, long now){
+        int index = seq & (RUDPConstants.SEND_WINDOW - 1);
+        ReliablePacket rpacket = inFlight.get(index);
+        if(rpacket == null || rpacket.seq != seq || !inFlight.compareAndSet(index, rpacket, null)) return false;
+
+        rpacket.cancel();
+        inFlightCount.decrementAndGet();
+        //Karn's algorithm: the ack of a resent packet is ambiguous
+        long sample = rpacket.retries == 0 ? now - rpacket.sendTime : -1;
+        if(sample >= 0){
+            rtt.sample(sample);
+            metrics.rtt(sample);
+        }
+        congestion.onAck(sample, now);
+        return true;
+    }
+
+    /**Copies the packet into the handler format: type, seq and payload, without the ack fields.*/
+    private static byte[] toHandlerPacket(byte packetType, short seq, ByteBuffer data, int offset){
+        byte[] bytes = new byte[data.limit() - offset + RudpPacket.HEADER_SIZE];
+        bytes[0] = packetType;
+        NetUtils.writeBytes(bytes, 1, seq);
+        data.position(offset);
+        data.get(bytes, RudpPacket.HEADER_SIZE, bytes.length - RudpPacket.HEADER_SIZE);
+        data.position(0);
+        return bytes;
+    }
+
+    /**Copies the packet bytes from offset up to the limit into a new array, leaving the buffer position at 0.*/
+    private static byte[] copyPayload(ByteBuffer data, int offset){
+        byte[] bytes = new byte[data.limit() - offset];
+        data.position(offset);
+        data.get(bytes);
+        data.position(0);
+        return bytes;
+    }
+
+    /**
+     * Sends the packet right away, or appends it to the pending batch when batching is enabled.
+     *
+     * @param rpacket in-flight packet to stamp with the time the batch leaves, null for unreliable packets
+     * @return number of the batch holding the packet, -1 if it was sent right away
+     */
+    private long sendOrBatch(byte[] packet, ReliablePacket rpacket){
+        int entry = RUDPConstants.BATCH_ENTRY_HEADER_SIZE + packet.length - RUDPConstants.PACKET_HEADER_SIZE;
+        int mtu = this.mtu;
+        if(!batching || RUDPConstants.PACKET_HEADER_SIZE + entry > mtu){
+            sendPacketRaw(packet, packet.length);
+            return -1;
+        }
+        synchronized(batchLock){
+            if(!batching){
+                sendPacketRaw(packet, packet.length);
+                return -1;
+            }
+            if(batchLength + entry > mtu) flushBatch();
+            if(batchLength == 0){
+                batch[0] = PacketType.BATCH;
+                batchLength = RUDPConstants.PACKET_HEADER_SIZE;
+            }
+            NetUtils.writeBytes(batch, batchLength, (short) (packet.length - RUDPConstants.PACKET_HEADER_SIZE));
+            System.arraycopy(packet, 0, batch, batchLength + 2, 3);
+            System.arraycopy(packet, RUDPConstants.PACKET_HEADER_SIZE, batch, batchLength + RUDPConstants.BATCH_ENTRY_HEADER_SIZE, packet.length - RUDPConstants.PACKET_HEADER_SIZE);
+            batchLength += entry;
+            if(rpacket != null) batchPackets.add(rpacket);
+
+            if(!flushScheduled && flushDelay > 0){
+                flushScheduled = true;
+                getTimer().schedule(flushTask, flushDelay);
+            }
+            return batchCount;
         }
     }
 
-    private void sendPacketRaw(byte[] data){
+    /**Sends the pending batch, must hold batchLock.*/
+    private void flushBatch(){
+        if(batchLength == 0) return;
+        sendPacketRaw(batch, batchLength);
+        //RTT samples and expiry start when the packets leave, not when they were queued into the batch
+        long now = System.nanoTime();
+        for(int i = 0; i < batchPackets.size(); i++){
+            batchPackets.get(i).sendTime = now;
+        }
+        batchPackets.clear();
+        batchLength = 0;
+        batchCount++;
+    }
+
+    /**@return whether the batch was still pending and has now been sent*/
+    private boolean flushPending(long batch){
+        synchronized(batchLock){
+            if(batch != batchCount || batchLength == 0) return false;
+            flushBatch();
+            return true;
+        }
+    }
+
+    /**Stamps the current ack state and timestamps into the packet header and sends it.*/
+    private void sendPacketRaw(byte[] data, int length){
+        unackedReceived = 0;
+        sendPacketRaw(data, length, ackState);
+    }
+
+    /**
+     * Stamps the given acks and the timestamps into the packet header and sends it.
+     *
+     * @param acks acked seq in the high 32 bits, bitfield of the 32 seqs before it in the low 32 bits
+     */
+    private void sendPacketRaw(byte[] data, int length, long acks){
         if(state == ConnectionState.STATE_DISCONNECTED) return;
-        if(type == ClientType.SERVER_CHILD) server.sendPacket(data, address, port);
+        NetUtils.writeBytes(data, 3, (short) (acks >>> 32));
+        NetUtils.writeBytes(data, 5, (int) acks);
+        long now = System.nanoTime();
+        int time = timestamp(now);
+        long remote = remoteTimestamp;
+        NetUtils.writeBytes(data, 9, time);
+        //the time the remote's stamp waited here is added, so the remote measures the network round trip alone
+        NetUtils.writeBytes(data, 13, remote == 0 ? 0 : (int) (remote >>> 32) + (time - (int) remote));
+        lastPacketSendTime = now;
+        metrics.sent(length);
+
+        if(type == ClientType.SERVER_CHILD) server.sendPacket(transport, data, length, endpoint);
         else{
-            DatagramPacket packet = new DatagramPacket(data, data.length, address, port);
+            Transport transport = this.transport;
             try{
-                socket.send(packet);
+                transport.send(data, 0, length, endpoint);
             }catch(IOException e){
-                e.printStackTrace();
+                if(!transport.isClosed()) e.printStackTrace();
+            }
+        }
+    }
+
+    /**Finishes a graceful disconnection once every reliable packet was acknowledged.*/
+    private void checkDisconnecting(){
+        if(state != ConnectionState.STATE_DISCONNECTING) return;
+        synchronized(sendQueue){
+            if(state == ConnectionState.STATE_DISCONNECTING && inFlightCount.get() == 0 && sendQueue.isEmpty()){
+                state = ConnectionState.STATE_DISCONNECTED;
+                if(type == ClientType.SERVER_CHILD) server.remove(this);
             }
         }
     }
 
-    private class ReliablePacket{
-        private long dateMS;
-        private long minDateMS;
-        private byte[] data;
-        private short seq;
+    /**Clears the sequence and ack state left over from a previous connection.*/
+    private void resetState(){
+        synchronized(sendQueue){
+            for(int i = 0; i < inFlight.length(); i++){
+                ReliablePacket rpacket = inFlight.getAndSet(i, null);
+                if(rpacket != null) rpacket.cancel();
+            }
+            inFlightCount.set(0);
+            sendQueue.clear();
+        }
+        receiveWindow.clear();
+        fragments.clear();
+        snapshots.clear();
+        Channel[] channels = this.channels;
+        DeliveryMode[] modes = new DeliveryMode[channels.length];
+        for(int i = 0; i < modes.length; i++){
+            modes[i] = channels[i].mode;
+        }
+        setChannels(modes);
+        mtu = RUDPConstants.MTU_MIN;
+        synchronized(batchLock){
+            batchLength = 0;
+            batchPackets.clear();
+            batchCount++;
+        }
+        endCompression();
+        compressor = null;
+        sequenceReliable = 0;
+        sequenceUnreliable = 0;
+        remoteTimestamp = 0;
+        smoothedLatency = -1;
+        ackState = 0xFFFF_0000_0000L;
+        unackedReceived = 0;
+    }
 
-        public ReliablePacket(short seq, long dateMS, byte[] data){
-            this.dateMS = dateMS;
-            this.minDateMS = dateMS + (latency * 2);
+    private TimerWheel getTimer(){
+        return type == ClientType.SERVER_CHILD ? server.getTimer() : clientTimer();
+    }
+
+    /**Timer shared by every client-mode connection of this process.*/
+    private static synchronized TimerWheel clientTimer(){
+        if(clientTimer == null){
+            clientTimer = new TimerWheel("RUDPClient timer", RUDPConstants.TIMER_TICK_MILLISECONDS, RUDPConstants.TIMER_WHEEL_SIZE);
+            clientTimer.start();
+        }
+        return clientTimer;
+    }
+
+    /**Reliable packet waiting for its RELY, rescheduled on the timer until acknowledged or expired.*/
+    private class ReliablePacket extends TimerWheel.Task{
+        private volatile long sendTime;
+        private final byte[] data;
+        private final short seq;
+        private volatile int retries;
+        /**Batch the first transmission was packed in, -1 once sent*/
+        private long batch = -1;
+
+        public ReliablePacket(short seq, byte[] data){
             this.data = data;
             this.seq = seq;
         }
+
+        @Override
+        public void run(){
+            int index = seq & (RUDPConstants.SEND_WINDOW - 1);
+            if(state == ConnectionState.STATE_DISCONNECTED || inFlight.get(index) != this) return;
+
+            if(System.nanoTime() - sendTime > TimeUnit.MILLISECONDS.toNanos(RUDPConstants.PACKET_TIMEOUT_TIME_MILLISECONDS)){
+                if(inFlight.compareAndSet(index, this, null)){
+                    inFlightCount.decrementAndGet();
+                    metrics.expired();
+                    checkDisconnecting();
+                    flushSendQueue();
+                }
+                return;
+            }
+            if(batch >= 0){
+                //never left, the batch was not flushed within the timeout
+                boolean pending = flushPending(batch);
+                batch = -1;
+                //or left later than the timer was set, the timeout counts from then
+                long wait = pending ? rtt.getRto() : sendTime + rtt.getRto() - System.nanoTime();
+                if(wait > 0){
+                    getTimer().schedule(this, wait, TimeUnit.NANOSECONDS);
+                    return;
+                }
+            }
+            batch = -1;
+            retries++;
+            metrics.retransmitted();
+            congestion.onLoss(System.nanoTime());
+            sendPacketRaw(data, data.length);
+            getTimer().schedule(this, rtt.getRto(retries), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**Resumes sending queued packets once the pacer allows it.*/
+    private class DrainTask extends TimerWheel.Task{
+        @Override
+        public void run(){
+            synchronized(sendQueue){
+                drainScheduled = false;
+            }
+            if(state != ConnectionState.STATE_DISCONNECTED) flushSendQueue();
+        }
+    }
+
+    /**Sends a batch that did not fill up within the flush delay.*/
+    private class FlushTask extends TimerWheel.Task{
+        @Override
+        public void run(){
+            synchronized(batchLock){
+                flushScheduled = false;
+                if(state != ConnectionState.STATE_DISCONNECTED) flushBatch();
+            }
+        }
+    }
+
+    /**Sends the probes of every size above the MTU, up to MTU_PROBE_ATTEMPTS times.*/
+    private class ProbeTask extends TimerWheel.Task{
+        private int attempts;
+
+        @Override
+        public void run(){
+            if(mtuProbe != this || state == ConnectionState.STATE_DISCONNECTED) return;
+            boolean sent = false;
+            for(int size : RUDPConstants.MTU_PROBE_SIZES){
+                if(size <= getMTU()) continue;
+                sendPacket(PacketType.MTU_PROBE, new byte[size - RUDPConstants.PACKET_HEADER_SIZE]);
+                sent = true;
+            }
+            if(sent && ++attempts < RUDPConstants.MTU_PROBE_ATTEMPTS){
+                getTimer().schedule(this, rtt.getRto(attempts), TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+    /**Sends a keep-alive once the connection sent nothing for PING_INTERVAL, busy connections never send any.*/
+    private class KeepAliveTask extends TimerWheel.Task{
+        @Override
+        public void run(){
+            if(keepAlive != this || state == ConnectionState.STATE_DISCONNECTED) return;
+            long interval = TimeUnit.MILLISECONDS.toNanos(RUDPConstants.PING_INTERVAL);
+            long idle = System.nanoTime() - lastPacketSendTime;
+            if(idle >= interval){
+                sendPacket(PacketType.PING_REQUEST, EMPTY);
+                idle = 0;
+            }
+            getTimer().schedule(this, interval - idle, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**Sends a standalone ack when no outgoing packet carried the pending acks in time.*/
+    private class AckTask extends TimerWheel.Task{
+        @Override
+        public void run(){
+            ackScheduled = false;
+            if(unackedReceived > 0 && state == ConnectionState.STATE_CONNECTED) sendPacket(PacketType.RELY, EMPTY);
+        }
     }
 }
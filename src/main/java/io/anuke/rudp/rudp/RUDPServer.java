@@ -2,19 +2,40 @@ package io.anuke.rudp.rudp;
 
 import io.anuke.rudp.RUDPConstants;
 import io.anuke.rudp.RUDPConstants.PacketType;
+import io.anuke.rudp.congestion.CongestionController;
+import io.anuke.rudp.congestion.NewRenoController;
 import io.anuke.rudp.handlers.PacketHandler;
+
+import io.anuke.rudp.transport.QueuedTransport;
+import io.anuke.rudp.transport.Transport;
+import io.anuke.rudp.transport.Transport.PacketReceiver;
+import io.anuke.rudp.transport.TransportFactory;
+import io.anuke.rudp.transport.TransportType;
+import io.anuke.rudp.utils.EndpointMap;
 import io.anuke.rudp.utils.NetUtils;
+import io.anuke.rudp.utils.TimerWheel;
 
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
+import java.lang.management.ManagementFactory;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.SocketException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
 
 public class RUDPServer{// receive buffer is bigger (4096B) and client packet is dynamic (<4096B (reliable) / ~21B or ~45B (avoidable))
     //Packet format:
@@ -22,26 +43,75 @@ public class RUDPServer{// receive buffer is bigger (4096B) and client packet is
     //data:							 type:	 	size:
     //packet type					[byte]		  1
     //sequence id					[short]	 	  2
-    //payload						[byte[]]	<4094
+    //latest reliable seq received	[short]		  2
+    //previous 32 seqs received		[int]		  4
+    //payload						[byte[]]	<4088
 
     private int port;
-    private DatagramSocket datagramSocket;
+    private final Shard[] shards;
 
-    private Thread serverThread;
     private Thread clientDropHandlerThread;
+    private final TimerWheel timer = new TimerWheel("RUDPServer timer", RUDPConstants.TIMER_TICK_MILLISECONDS, RUDPConstants.TIMER_WHEEL_SIZE);
 
     private boolean running = false;
     private boolean stopping = false;
     private PacketHandler handler;
+    private Supplier<CongestionController> congestionControl = NewRenoController::new;
+    private boolean batching;
+    private DeliveryMode[] channels = {DeliveryMode.RELIABLE_ORDERED};
+    private long flushDelay = RUDPConstants.BATCH_FLUSH_DELAY_MILLISECONDS;
+    private Executor handlerExecutor;
+    private boolean compression;
+    private byte[] compressionDictionary;
+    private int compressionThreshold = RUDPConstants.COMPRESSION_THRESHOLD;
     private final List<RUDPClient> clients = new ArrayList<>();
     private final ConcurrentHashMap<Integer, RUDPClient> clientMap = new ConcurrentHashMap<>();
+    /**Named groups of connections, a group is removed once empty*/
+    private final ConcurrentHashMap<String, Set<RUDPClient>> groups = new ConcurrentHashMap<>();
     private int lastClientID;
+    private final Metrics metrics = new Metrics(null);
+    private ObjectName mbeanName;
+    private final HandshakeCookies cookies = new HandshakeCookies();
 
     public RUDPServer(int port) throws SocketException{
-        this.port = port;
-        datagramSocket = new DatagramSocket(port);
+        this(port, TransportType.DATAGRAM_SOCKET);
+    }
+
+    /**@param transportFactory opens the server socket, a {@link TransportType} or a {@link io.anuke.rudp.transport.SimulatedNetwork}*/
+    public RUDPServer(int port, TransportFactory transportFactory) throws SocketException{
+        this(port, transportFactory, 1);
+    }
 
-        startServerThread();
+    /**
+     * Creates a server receiving on several sockets bound to the same port with SO_REUSEPORT.
+     * The kernel hashes each remote endpoint to one socket, every socket has its own receive thread
+     * and its own shard of the connection table, so a connection is only ever handled by the thread of its shard.
+     *
+     * @param shards sockets to open, more than 1 requires {@link TransportType#isReusePortSupported()}
+     */
+    public RUDPServer(int port, TransportFactory transportFactory, int shards) throws SocketException{
+        if(shards < 1) throw new IllegalArgumentException("Shard count must be at least 1");
+        if(shards > 1 && transportFactory instanceof TransportType && !TransportType.isReusePortSupported()){
+            throw new SocketException("SO_REUSEPORT is not supported, unable to open " + shards + " sockets on port " + port);
+        }
+        this.port = port;
+        this.shards = new Shard[shards];
+        try{
+            for(int i = 0; i < shards; i++){
+                //port 0 binds the first socket to a free port, the others must join it
+                Transport transport = transportFactory.open(this.port, shards > 1);
+                this.port = transport.getLocalPort();
+                this.shards[i] = new Shard(i, transport);
+            }
+        }catch(IOException | UnsupportedOperationException e){
+            for(Shard shard : this.shards){
+                if(shard != null) shard.transport.close();
+            }
+            if(e instanceof SocketException) throw (SocketException) e;
+            SocketException exception = new SocketException("Unable to open " + transportFactory + " on port " + port + ": " + e.getMessage());
+            exception.initCause(e);
+            throw exception;
+        }
 
         initClientDropHandler();
     }
@@ -65,24 +135,211 @@ public class RUDPServer{// receive buffer is bigger (4096B) and client packet is
     }
 
     public RUDPClient getClient(InetAddress address, int port){
-        for(RUDPClient c : clients){
-            if(c.address.equals(address) && c.port == port){
-                return c;
-            }
+        for(Shard shard : shards){
+            RUDPClient client = shard.endpoints.get(address, port);
+            if(client != null) return client;
         }
         return null;
     }
 
+    /**
+     * Sends a message to every connection, on a channel delivering it as its {@link DeliveryMode} says.
+     * The message is encoded once, each connection only patching its own headers in, and connections are iterated
+     * without copying or locking the connection list.
+     *
+     * @throws IllegalArgumentException if the channel does not exist, or an unreliable message does not fit a datagram
+     */
+    public void broadcast(int channel, byte[] data){
+        broadcast(channel, ByteBuffer.wrap(data));
+    }
+
+    /**Broadcasts the bytes between the position and the limit, leaving the position at the limit. See {@link #broadcast(int, byte[])}.*/
+    public void broadcast(int channel, ByteBuffer data){
+        send(clientMap.values(), channel, data);
+    }
+
+    /**
+     * Adds a connection to a named group, e.g. a room or a match, created by its first connection.
+     * Connections leave their groups when they disconnect.
+     */
+    public void addToGroup(String group, RUDPClient connection){
+        //remove() takes the same lock after the state changes, so a connection disconnecting now is either seen here or removed there
+        synchronized(connection.serverGroups){
+            if(connection.state == ConnectionState.STATE_DISCONNECTED || !connection.serverGroups.add(group)) return;
+            //atomic with the removal of the group once empty
+            groups.compute(group, (name, members) -> {
+                if(members == null) members = ConcurrentHashMap.newKeySet();
+                members.add(connection);
+                return members;
+            });
+        }
+    }
+
+    public void removeFromGroup(String group, RUDPClient connection){
+        synchronized(connection.serverGroups){
+            if(connection.serverGroups.remove(group)) leaveGroup(group, connection);
+        }
+    }
+
+    private void leaveGroup(String group, RUDPClient connection){
+        groups.computeIfPresent(group, (name, members) -> members.remove(connection) && members.isEmpty() ? null : members);
+    }
+
+    /**@return the connections of a group, a live view safe to iterate while it changes; empty if the group does not exist*/
+    public Set<RUDPClient> getGroup(String group){
+        Set<RUDPClient> members = groups.get(group);
+        return members == null ? Collections.emptySet() : Collections.unmodifiableSet(members);
+    }
+
+    /**@return names of the groups having connections*/
+    public Set<String> getGroupNames(){
+        return Collections.unmodifiableSet(groups.keySet());
+    }
+
+    /**Sends a message to every connection of a group, encoded once like {@link #broadcast(int, byte[])}.*/
+    public void sendToGroup(String group, int channel, byte[] data){
+        sendToGroup(group, channel, ByteBuffer.wrap(data));
+    }
+
+    public void sendToGroup(String group, int channel, ByteBuffer data){
+        Set<RUDPClient> members = groups.get(group);
+        send(members == null ? Collections.emptySet() : members, channel, data);
+    }
+
+    private void send(Collection<RUDPClient> connections, int channel, ByteBuffer data){
+        DeliveryMode[] channels = this.channels;
+        if(channel < 0 || channel >= channels.length) throw new IllegalArgumentException("Unknown channel " + channel);
+        boolean reliable = channels[channel].reliable;
+        if(!reliable && RUDPConstants.PACKET_HEADER_SIZE + RUDPConstants.MESSAGE_HEADER_SIZE + data.remaining() > RUDPConstants.RECEIVE_MAX_SIZE){
+            throw new IllegalArgumentException("Packet of " + data.remaining() + " bytes exceeds the datagram limit of " + RUDPConstants.RECEIVE_MAX_SIZE + ", send it reliably to fragment it");
+        }
+        EncodedMessage message = new EncodedMessage(channel, data, reliable);
+        for(RUDPClient connection : connections){
+            connection.send(message);
+        }
+    }
+
+    /**@return sockets receiving on the server port*/
+    public int getShardCount(){
+        return shards.length;
+    }
+
     public void setPacketHandler(PacketHandler handler){
         this.handler = handler;
     }
 
+    /**Runs handler callbacks of new connections on the given executor, each connection in order, see {@link RUDPClient#setHandlerExecutor(Executor)}.*/
+    public void setHandlerExecutor(Executor executor){
+        this.handlerExecutor = executor;
+    }
+
+    /**Sets the factory creating a congestion controller for each new connection. Defaults to {@link NewRenoController}.*/
+    public void setCongestionControl(Supplier<CongestionController> congestionControl){
+        this.congestionControl = congestionControl;
+    }
+
+    /**Sets the channels of new connections, see {@link RUDPClient#setChannels(DeliveryMode...)}.*/
+    public void setChannels(DeliveryMode... modes){
+        if(modes.length == 0 || modes.length > RUDPConstants.MAX_CHANNELS){
+            throw new IllegalArgumentException("Channel count must be between 1 and " + RUDPConstants.MAX_CHANNELS);
+        }
+        this.channels = modes.clone();
+    }
+
+    /**Enables batching on new connections, see {@link RUDPClient#setBatching(boolean)}.*/
+    public void setBatching(boolean batching){
+        this.batching = batching;
+    }
+
+    /**Sets the batch flush delay of new connections, see {@link RUDPClient#setFlushDelay(long)}.*/
+    public void setFlushDelay(long millis){
+        this.flushDelay = millis;
+    }
+
+    /**Compresses new connections whose client offers it too, see {@link RUDPClient#setCompression(boolean, byte[])}.*/
+    public void setCompression(boolean compression){
+        setCompression(compression, null);
+    }
+
+    /**
+     * Compresses new connections whose client offers it too, see {@link RUDPClient#setCompression(boolean, byte[])}.
+     * The dictionary is only used with clients having the same one, others are compressed without it.
+     */
+    public void setCompression(boolean compression, byte[] dictionary){
+        this.compression = compression;
+        this.compressionDictionary = dictionary == null ? null : dictionary.clone();
+    }
+
+    /**Sets the compression threshold of new connections, see {@link RUDPClient#setCompressionThreshold(int)}.*/
+    public void setCompressionThreshold(int bytes){
+        this.compressionThreshold = bytes;
+    }
+
+    /**
+     * Sends through one writer thread per socket fed by a lock-free queue, instead of from every calling thread.
+     * Must be called before {@link #start()}.
+     *
+     * @param capacity datagrams waiting per socket before new ones are dropped, see {@link QueuedTransport}
+     */
+    public void setOutboundQueue(int capacity){
+        if(running) throw new IllegalStateException("The outbound queue must be set before starting the server");
+        for(Shard shard : shards){
+            if(shard.transport instanceof QueuedTransport) throw new IllegalStateException("Outbound queue already set");
+        }
+        for(Shard shard : shards){
+            shard.transport = new QueuedTransport(shard.transport, capacity);
+        }
+    }
+
+    /**@return datagrams waiting in the outbound queues, 0 without {@link #setOutboundQueue(int)}*/
+    public int getOutboundQueueDepth(){
+        int depth = 0;
+        for(Shard shard : shards){
+            if(shard.transport instanceof QueuedTransport) depth += ((QueuedTransport) shard.transport).getQueueDepth();
+        }
+        return depth;
+    }
+
+    /**@return datagrams dropped because an outbound queue was full*/
+    public long getOutboundDropped(){
+        long dropped = 0;
+        for(Shard shard : shards){
+            if(shard.transport instanceof QueuedTransport) dropped += ((QueuedTransport) shard.transport).getDropped();
+        }
+        return dropped;
+    }
+
+    /**@return traffic counters summed over every connection since the server was created*/
+    public Metrics getMetrics(){
+        return metrics;
+    }
+
+    /**@return reliable packets awaiting an ack, over every connection*/
+    public int getPacketsInFlight(){
+        int inFlight = 0;
+        for(RUDPClient client : clientMap.values()){
+            inFlight += client.getPacketsInFlight();
+        }
+        return inFlight;
+    }
+
+    /**Sends the packets batched so far on every connection.*/
+    public void flush(){
+        for(RUDPClient client : clientMap.values()){
+            client.flush();
+        }
+    }
+
     public void start(){
         if(running) return;
         running = true;
 
-        serverThread.start();
+        timer.start();
+        for(Shard shard : shards){
+            shard.thread.start();
+        }
         clientDropHandlerThread.start();
+        registerMBean();
 
         System.out.println("[RUDPServer] Server started on UDP port " + port);
     }
@@ -91,56 +348,106 @@ public class RUDPServer{// receive buffer is bigger (4096B) and client packet is
         System.out.println("Stopping server...");
         synchronized(clients){
             stopping = true;
-            for(RUDPClient client : clients){
+            for(RUDPClient client : new ArrayList<>(clients)){
                 client.disconnect("Server shutting down");
             }
         }
         clients.clear();
+        clientMap.clear();
         running = false;
-        datagramSocket.close();
+        timer.stop();
+        for(Shard shard : shards){
+            shard.endpoints.clear();
+            shard.transport.close();
+        }
+        unregisterMBean();
     }
 
     public void kick(int id, String reason){
         synchronized(clients){
-            RUDPClient clientToRemove = clients.get(id);
+            RUDPClient clientToRemove = clientMap.get(id);
+            if(clientToRemove == null) return;
             byte[] reasonB = reason.getBytes(StandardCharsets.UTF_8);
             clientToRemove.sendPacket(PacketType.DISCONNECT_FROM_SERVER, reasonB);
             clientToRemove.state = ConnectionState.STATE_DISCONNECTED;
-            clients.remove(clientToRemove);
+            remove(clientToRemove);
         }
     }
 
     /* Helper Methods */
-    private void handlePacket(byte[] data, InetAddress clientAddress, int clientPort){
+    private void handlePacket(Shard shard, ByteBuffer data, InetAddress clientAddress, int clientPort){
         //Check if packet is not empty
-        if(data.length == 0){
+        if(data.limit() == 0){
             System.out.println("[RUDPServer] Empty packet received");
             return;
         }
 
         //check if packet is an handshake packet
-        if(data[0] == PacketType.HANDSHAKE_START){
+        if(data.get(0) == PacketType.HANDSHAKE_START){
             //If client is valid, add it to the list and initialize it
 
+            //the source may be spoofed, never reply with more than was received
+            if(data.limit() < RUDPConstants.HANDSHAKE_MIN_SIZE) return;
+
             if(stopping){
                 byte[] error = "Server closing".getBytes(StandardCharsets.UTF_8);
                 byte[] reponse = new byte[error.length + 1];
                 reponse[0] = PacketType.HANDSHAKE_ERROR;
                 System.arraycopy(error, 0, reponse, 1, error.length);
-                sendPacket(reponse, clientAddress, clientPort);
-            }else if(NetUtils.asInt(data, 1) == RUDPConstants.VERSION_MAJOR && NetUtils.asInt(data, 5) == RUDPConstants.VERSION_MINOR){//version check
-
-                sendPacket(new byte[]{PacketType.HANDSHAKE_OK}, clientAddress, clientPort);
+                sendPacket(shard.transport, reponse, clientAddress, clientPort);
+            }else if(data.limit() >= RUDPConstants.HANDSHAKE_SIZE && data.getInt(1) == RUDPConstants.VERSION_MAJOR && data.getInt(5) == RUDPConstants.VERSION_MINOR){//version check
+
+                if(!cookies.verify(data, RUDPConstants.HANDSHAKE_SIZE, clientAddress, clientPort)){
+                    //nothing is kept until the client echoes a cookie, proving it receives at its address
+                    byte[] reply = new byte[1 + RUDPConstants.HANDSHAKE_COOKIE_SIZE];
+                    reply[0] = PacketType.HANDSHAKE_COOKIE;
+                    cookies.create(clientAddress, clientPort, reply, 1);
+                    sendPacket(shard.transport, reply, clientAddress, clientPort);
+                    return;
+                }
+                byte[] cookie = new byte[RUDPConstants.HANDSHAKE_COOKIE_SIZE];
+                for(int i = 0; i < cookie.length; i++) cookie[i] = data.get(RUDPConstants.HANDSHAKE_SIZE + i);
+                RUDPClient previous = shard.endpoints.get(clientAddress, clientPort);
+                if(previous != null && Arrays.equals(cookie, previous.handshakeCookie)){
+                    //the same handshake again, duplicated on the way or resent: the reply was lost, not the connection
+                    sendPacket(shard.transport, previous.handshakeReply, clientAddress, clientPort);
+                    return;
+                }
 
-                final RUDPClient rudpclient = new RUDPClient(clientAddress, clientPort, this, handler);
-                rudpclient.setID(lastClientID++);
+                final RUDPClient rudpclient = new RUDPClient(clientAddress, clientPort, this, shard.transport, handler);
+                rudpclient.setCongestionController(congestionControl.get());
+                rudpclient.setChannels(channels);
+                rudpclient.setFlushDelay(flushDelay);
+                rudpclient.setBatching(batching);
+                rudpclient.setHandlerExecutor(handlerExecutor);
+                byte[] reply = {PacketType.HANDSHAKE_OK};
+                if(compression && (data.get(9) & RUDPConstants.HANDSHAKE_COMPRESSION) != 0){
+                    //the dictionary is only shared if both sides have the same one
+                    int dictionary = MessageCompressor.dictionaryId(compressionDictionary);
+                    if(dictionary != data.getInt(10)) dictionary = 0;
+                    rudpclient.enableCompression(dictionary == 0 ? null : compressionDictionary, compressionThreshold);
+                    reply = new byte[6];
+                    reply[0] = PacketType.HANDSHAKE_OK;
+                    reply[1] = RUDPConstants.HANDSHAKE_COMPRESSION;
+                    NetUtils.writeBytes(reply, 2, dictionary);
+                }
+                rudpclient.handshakeCookie = cookie;
+                rudpclient.handshakeReply = reply;
                 synchronized(clients){
+                    //a new handshake from a known endpoint means the old connection is dead
+                    previous = getClient(clientAddress, clientPort);
+                    if(previous != null) previous.disconnected("Reconnected");
+                    //shards handshake concurrently, ids are taken under the lock
+                    rudpclient.setID(lastClientID++);
                     clients.add(rudpclient);
                     clientMap.put(rudpclient.getID(), rudpclient);
+                    shard.endpoints.put(clientAddress, clientPort, rudpclient);
                 }
+                //registered first, the client may use the connection as soon as it gets the reply
+                sendPacket(shard.transport, reply, clientAddress, clientPort);
                 System.out.println("[RUDPServer] Added new client !");
-                System.out.println("[RUDPServer] Initializing client...");
-                new Thread(rudpclient::initialize, "RUDP Client init thread").start();
+                //on this receive thread, after the reply so that it leaves before the MTU probes
+                rudpclient.initialize();
                 return;
 
             }else{
@@ -150,86 +457,97 @@ public class RUDPServer{// receive buffer is bigger (4096B) and client packet is
                 byte[] reponse = new byte[error.length + 1];
                 reponse[0] = PacketType.HANDSHAKE_ERROR;
                 System.arraycopy(error, 0, reponse, 1, error.length);
-                sendPacket(reponse, clientAddress, clientPort);
+                sendPacket(shard.transport, reponse, clientAddress, clientPort);
 
             }
         }
 
         //handle packet in ClientRUDP
-        RUDPClient clientToRemove = null;
-        for(RUDPClient client : clients){
-            if(Arrays.equals(client.address.getAddress(), clientAddress.getAddress()) && client.port == clientPort){
-
-                if(data[0] == PacketType.DISCONNECT_FROM_CLIENT){
-                    byte[] reason = new byte[data.length - 3];
-                    System.arraycopy(data, 3, reason, 0, reason.length);
-
-                    client.disconnected(new String(reason, StandardCharsets.UTF_8));
-                    clientToRemove = client;
-                }else{
-                    client.handlePacket(data);
-                    return;
-                }
-
-                break;
-            }
-        }
-        if(clientToRemove != null){
-            remove(clientToRemove);
+        RUDPClient client = shard.endpoints.get(clientAddress, clientPort);
+        if(client == null || data.limit() < RUDPConstants.PACKET_HEADER_SIZE) return;
+
+        if(data.get(0) == PacketType.DISCONNECT_FROM_CLIENT){
+            byte[] reason = new byte[data.limit() - RUDPConstants.PACKET_HEADER_SIZE];
+            data.position(RUDPConstants.PACKET_HEADER_SIZE);
+            data.get(reason);
+
+            client.disconnected(new String(reason, StandardCharsets.UTF_8));
+            remove(client);
+        }else{
+            client.handlePacket(data);
         }
     }
 
     protected void sendPacket(byte[] data, InetAddress address, int port){
-        DatagramPacket packet = new DatagramPacket(data, data.length, address, port);
-        packet.setData(data);
+        //every shard is bound to the same port, the datagram leaves with the same source either way
+        sendPacket(shards[0].transport, data, address, port);
+    }
+
+    private void sendPacket(Transport transport, byte[] data, InetAddress address, int port){
+        sendPacket(transport, data, data.length, new InetSocketAddress(address, port));
+    }
+
+    void sendPacket(Transport transport, byte[] data, int length, InetSocketAddress endpoint){
         try{
-            datagramSocket.send(packet);
+            transport.send(data, 0, length, endpoint);
         }catch(IOException e){
-            e.printStackTrace();
+            if(running) e.printStackTrace();
         }
     }
 
-    void remove(RUDPClient client){
-        synchronized(clients){
-            clients.remove(client);
-            clientMap.remove(client.getID());
+    private void registerMBean(){
+        try{
+            ObjectName name = new ObjectName("io.anuke.rudp:type=RUDPServer,port=" + port);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new StandardMBean(new MXBeanView(), RUDPServerMXBean.class, true), name);
+            mbeanName = name;
+        }catch(JMException e){
+            System.err.println("[RUDPServer] Unable to register the JMX bean: " + e);
         }
     }
 
-    private void startServerThread(){
-        serverThread = new Thread(() -> {
-            while(running){
-                byte[] buffer = new byte[RUDPConstants.RECEIVE_MAX_SIZE];
-                DatagramPacket datagramPacket = new DatagramPacket(buffer, buffer.length);
+    private void unregisterMBean(){
+        if(mbeanName == null) return;
+        try{
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName);
+        }catch(JMException e){
+            //already gone
+        }
+        mbeanName = null;
+    }
 
-                try{
-                    datagramSocket.receive(datagramPacket);
-                }catch(IOException e){
-                    if(running){
-                        System.err.println("[RUDPServer] An error as occured while receiving a packet: ");
-                        e.printStackTrace();
-                    }
-                }
-                if(!running) break;
-                byte[] data = new byte[datagramPacket.getLength()];
-                System.arraycopy(datagramPacket.getData(), datagramPacket.getOffset(), data, 0, datagramPacket.getLength());
+    /**Timer driving retransmissions of every connection of this server.*/
+    TimerWheel getTimer(){
+        return timer;
+    }
 
-                handlePacket(data, datagramPacket.getAddress(), datagramPacket.getPort());
-                datagramPacket.setLength(RUDPConstants.RECEIVE_MAX_SIZE);
+    void remove(RUDPClient client){
+        synchronized(clients){
+            clients.remove(client);
+            clientMap.remove(client.getID(), client);
+            for(Shard shard : shards){
+                if(shard.endpoints.remove(client.address, client.port, client)) break;
             }
-        }, "RUDPServer packets receiver");
+        }
+        synchronized(client.serverGroups){
+            for(String group : client.serverGroups){
+                leaveGroup(group, client);
+            }
+            client.serverGroups.clear();
+        }
     }
 
+
     private void initClientDropHandler(){
         clientDropHandlerThread = new Thread(() -> {
             try{
                 while(running){
                     synchronized(clients){
-                        long maxMS = System.currentTimeMillis() - RUDPConstants.CLIENT_TIMEOUT_TIME_MILLISECONDS;
+                        long now = System.nanoTime();
+                        long timeout = TimeUnit.MILLISECONDS.toNanos(RUDPConstants.CLIENT_TIMEOUT_TIME_MILLISECONDS);
                         int i = 0;
                         while(i < clients.size()){
                             RUDPClient client = clients.get(i);
-                            if(client.lastPacketReceiveTime < maxMS){
+                            if(now - client.lastPacketReceiveTime > timeout){
                                 client.disconnected("Connection timed out");
                             }else i++;
                         }
@@ -241,4 +559,128 @@ public class RUDPServer{// receive buffer is bigger (4096B) and client packet is
             }
         }, "RUDPServer client drop handler");
     }
+
+    private final class MXBeanView implements RUDPServerMXBean{
+        @Override
+        public int getPort(){
+            return port;
+        }
+
+        @Override
+        public int getShardCount(){
+            return shards.length;
+        }
+
+        @Override
+        public int getConnectionCount(){
+            return clientMap.size();
+        }
+
+        @Override
+        public long getPacketsSent(){
+            return metrics.getPacketsSent();
+        }
+
+        @Override
+        public long getBytesSent(){
+            return metrics.getBytesSent();
+        }
+
+        @Override
+        public long getPacketsReceived(){
+            return metrics.getPacketsReceived();
+        }
+
+        @Override
+        public long getBytesReceived(){
+            return metrics.getBytesReceived();
+        }
+
+        @Override
+        public long getRetransmissions(){
+            return metrics.getRetransmissions();
+        }
+
+        @Override
+        public long getDuplicates(){
+            return metrics.getDuplicates();
+        }
+
+        @Override
+        public long getExpired(){
+            return metrics.getExpired();
+        }
+
+        @Override
+        public long getMismatched(){
+            return metrics.getMismatched();
+        }
+
+        @Override
+        public int getPacketsInFlight(){
+            return RUDPServer.this.getPacketsInFlight();
+        }
+
+        @Override
+        public int getOutboundQueueDepth(){
+            return RUDPServer.this.getOutboundQueueDepth();
+        }
+
+        @Override
+        public long getOutboundDropped(){
+            return RUDPServer.this.getOutboundDropped();
+        }
+
+        @Override
+        public long[] getRttBucketBounds(){
+            return metrics.getRtt().getBounds();
+        }
+
+        @Override
+        public long[] getRttBucketCounts(){
+            return metrics.getRtt().getCounts();
+        }
+
+        @Override
+        public long getRttMedian(){
+            return metrics.getRtt().getQuantile(0.5);
+        }
+
+        @Override
+        public long getRtt99thPercentile(){
+            return metrics.getRtt().getQuantile(0.99);
+        }
+    }
+
+    /**A socket bound to the server port with its receive thread and the connections the kernel routes to it.*/
+    private final class Shard{
+        Transport transport;
+        final EndpointMap<RUDPClient> endpoints = new EndpointMap<>();
+        /**Handles one datagram, a malformed one must not end the receive thread of every connection on the shard*/
+        final PacketReceiver receiver = (data, address, port) -> {
+            try{
+                handlePacket(this, data, address, port);
+            }catch(RuntimeException e){
+                System.err.print("[RUDPServer] An error occured while handling packet:");
+                e.printStackTrace();
+            }
+        };
+        final Thread thread;
+
+        Shard(int index, Transport transport){
+            this.transport = transport;
+            this.thread = new Thread(() -> {
+                while(running){
+                    try{
+                        this.transport.receive(receiver);
+                    }catch(IOException e){
+                        if(running){
+                            System.err.println("[RUDPServer] An error as occured while receiving a packet: ");
+                            e.printStackTrace();
+                        }
+                    }
+                }
+            }, shards.length == 1 ? "RUDPServer packets receiver" : "RUDPServer packets receiver " + index);
+        }
+    }
 }
@@ -0,0 +1,46 @@
+package io.anuke.rudp.rudp;
+
+/**
+ * JMX view of a running server, registered as {@code io.anuke.rudp:type=RUDPServer,port=<port>}.
+ * Counters add up every connection since the server was created; times are in microseconds.
+ */
+public interface RUDPServerMXBean{
+    int getPort();
+
+    int getShardCount();
+
+    int getConnectionCount();
+
+    long getPacketsSent();
+
+    long getBytesSent();
+
+    long getPacketsReceived();
+
+    long getBytesReceived();
+
+    long getRetransmissions();
+
+    long getDuplicates();
+
+    long getExpired();
+
+    long getMismatched();
+
+    /**@return reliable packets awaiting an ack, over every connection*/
+    int getPacketsInFlight();
+
+    int getOutboundQueueDepth();
+
+    long getOutboundDropped();
+
+    /**@return inclusive upper bounds of the RTT histogram buckets*/
+    long[] getRttBucketBounds();
+
+    /**@return RTT samples per bucket, the last one counting samples above every bound*/
+    long[] getRttBucketCounts();
+
+    long getRttMedian();
+
+    long getRtt99thPercentile();
+}
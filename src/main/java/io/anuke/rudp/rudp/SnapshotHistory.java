@@ -0,0 +1,132 @@
+package io.anuke.rudp.rudp;
+
+import io.anuke.rudp.RUDPConstants;
+import io.anuke.rudp.utils.DeltaCodec;
+import io.anuke.rudp.utils.NetUtils;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Recent snapshots of one connection, in both directions, at index id % SNAPSHOT_HISTORY.
+ * Snapshots sent are encoded against the newest one the remote acknowledged, snapshots received are decoded
+ * against the baseline named by the sender. The sending side is guarded by this object, the receiving side is
+ * only used by the thread handling received packets.
+ */
+final class SnapshotHistory{
+    private static final int SIZE = RUDPConstants.SNAPSHOT_HISTORY;
+
+    private final byte[][] sent = new byte[SIZE][];
+    private final int[] sentLengths = new int[SIZE];
+    /**Id of the snapshot in each slot, -1 if empty*/
+    private final int[] sentIds = new int[SIZE];
+    private short nextId;
+    /**Newest snapshot acknowledged by the remote, -1 if none*/
+    private int acked = -1;
+    private byte[] encoded = new byte[RUDPConstants.RECEIVE_MAX_SIZE];
+
+    private final byte[][] received = new byte[SIZE][];
+    private final int[] receivedLengths = new int[SIZE];
+    private final int[] receivedIds = new int[SIZE];
+    /**Newest snapshot delivered, -1 if none*/
+    private int newest = -1;
+
+    SnapshotHistory(){
+        clear();
+    }
+
+    /**
+     * Stores a snapshot to send and encodes it against the newest acknowledged one still kept, or against nothing.
+     *
+     * @return a packet holding the snapshot header and the delta after offset bytes left for the packet header
+     */
+    synchronized byte[] encode(ByteBuffer snapshot, int offset){
+        short seq = nextId;
+        nextId = NetUtils.shortIncrement(seq);
+        int id = seq & 0xFFFF, slot = id & (SIZE - 1);
+        int length = snapshot.remaining();
+
+        //the slot being replaced is at least a whole history behind, never the baseline
+        if(sent[slot] == null || sent[slot].length < length) sent[slot] = new byte[length];
+        snapshot.get(sent[slot], 0, length);
+        sentLengths[slot] = length;
+        sentIds[slot] = id;
+
+        int baseline = id;
+        if(acked >= 0 && ((id - acked) & 0xFFFF) < SIZE && sentIds[acked & (SIZE - 1)] == acked) baseline = acked;
+        int baseSlot = baseline & (SIZE - 1);
+
+        int size = RUDPConstants.SNAPSHOT_HEADER_SIZE + DeltaCodec.maxEncodedLength(length);
+        if(encoded.length < size) encoded = new byte[size];
+        int end = baseline == id
+            ? DeltaCodec.encode(null, 0, sent[slot], 0, length, encoded, 0)
+            : DeltaCodec.encode(sent[baseSlot], sentLengths[baseSlot], sent[slot], 0, length, encoded, 0);
+
+        byte[] packet = new byte[offset + RUDPConstants.SNAPSHOT_HEADER_SIZE + end];
+        NetUtils.writeBytes(packet, offset, seq);
+        NetUtils.writeBytes(packet, offset + 2, (short) baseline);
+        System.arraycopy(encoded, 0, packet, offset + RUDPConstants.SNAPSHOT_HEADER_SIZE, end);
+        return packet;
+    }
+
+    /**Records an ack of the remote, the newest one acknowledged becomes the baseline of the next snapshots.*/
+    synchronized void acknowledge(short id){
+        int value = id & 0xFFFF;
+        if(sentIds[id & (SIZE - 1)] != value) return;
+        if(acked < 0 || NetUtils.sequenceGreaterThan(id, (short) acked)) acked = value;
+    }
+
+    /**
+     * Decodes a received snapshot and keeps it as a baseline for the next ones.
+     *
+     * @param data packet with the snapshot header at offset and the delta up to the limit
+     * @return the id of the snapshot, to acknowledge; -1 if it is a whole history older than the newest one delivered,
+     * its baseline is no longer known or it is malformed
+     */
+    int receive(ByteBuffer data, int offset){
+        if(data.limit() - offset < RUDPConstants.SNAPSHOT_HEADER_SIZE) return -1;
+        int id = data.getShort(offset) & 0xFFFF;
+        //its slot holds a newer snapshot, maybe the baseline of the next ones
+        if(newest >= 0 && ((newest - id) & 0xFFFF) >= SIZE && !NetUtils.sequenceGreaterThan((short) id, (short) newest)) return -1;
+        int baseline = data.getShort(offset + 2) & 0xFFFF;
+        int slot = id & (SIZE - 1), baseSlot = baseline & (SIZE - 1);
+        if(receivedIds[slot] == id) return id;
+        if(baseline != id && (((id - baseline) & 0xFFFF) >= SIZE || receivedIds[baseSlot] != baseline)) return -1;
+
+        ByteBuffer delta = data.duplicate();
+        delta.position(offset + RUDPConstants.SNAPSHOT_HEADER_SIZE);
+        int length = DeltaCodec.decodeLength(delta);
+        if(length < 0 || length > RUDPConstants.RECEIVE_MAX_SIZE) return -1;
+
+        //emptied first, the slot holds garbage if decoding fails
+        receivedIds[slot] = -1;
+        if(received[slot] == null || received[slot].length < length) received[slot] = new byte[length];
+        boolean decoded = baseline == id
+            ? DeltaCodec.decode(null, 0, delta, received[slot], length)
+            : DeltaCodec.decode(received[baseSlot], receivedLengths[baseSlot], delta, received[slot], length);
+        if(!decoded) return -1;
+        receivedLengths[slot] = length;
+        receivedIds[slot] = id;
+        return id;
+    }
+
+    /**
+     * @return the snapshot received with an id if it is newer than every one delivered so far, then the newest;
+     * null otherwise. A view of the stored snapshot, valid until a whole history of snapshots later.
+     */
+    ByteBuffer deliver(int id){
+        if(newest >= 0 && !NetUtils.sequenceGreaterThan((short) id, (short) newest)) return null;
+        newest = id;
+        int slot = id & (SIZE - 1);
+        return ByteBuffer.wrap(received[slot], 0, receivedLengths[slot]);
+    }
+
+    /**Forgets every snapshot, e.g. before reconnecting.*/
+    synchronized void clear(){
+        Arrays.fill(sentIds, -1);
+        Arrays.fill(receivedIds, -1);
+        nextId = 0;
+        acked = -1;
+        newest = -1;
+    }
+}
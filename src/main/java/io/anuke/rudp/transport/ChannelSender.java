@@ -0,0 +1,69 @@
+package io.anuke.rudp.transport;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+
+/**
+ * Sends datagrams on a non-blocking {@link DatagramChannel}, waiting for room in the socket send buffer when it is full
+ * like a blocking socket would, instead of dropping the datagram. The selector waited on is only opened the first time
+ * the buffer is found full, so channels that never fill it cost nothing more.
+ */
+public final class ChannelSender{
+    /**Bound on a single wait, so a channel closed before it was registered is noticed*/
+    private static final long WAIT_MILLISECONDS = 100L;
+
+    private final DatagramChannel channel;
+    /**Set under the monitor of this, read without it to wake a waiting sender*/
+    private volatile Selector selector;
+
+    public ChannelSender(DatagramChannel channel){
+        this.channel = channel;
+    }
+
+    /**Sends the bytes between the position and the limit as one datagram, blocking while the send buffer is full.*/
+    public void send(ByteBuffer data, InetSocketAddress endpoint) throws IOException{
+        //0 bytes sent means no room, unless the datagram was empty to begin with
+        if(channel.send(data, endpoint) > 0 || !data.hasRemaining()) return;
+        synchronized(this){
+            try{
+                if(selector == null){
+                    Selector selector = Selector.open();
+                    try{
+                        channel.register(selector, SelectionKey.OP_WRITE);
+                    }catch(IOException e){
+                        selector.close();
+                        throw e;
+                    }
+                    this.selector = selector;
+                }
+                while(channel.send(data, endpoint) == 0){
+                    selector.select(WAIT_MILLISECONDS);
+                    selector.selectedKeys().clear();
+                    if(!channel.isOpen()){
+                        close();
+                        throw new ClosedChannelException();
+                    }
+                }
+            }catch(ClosedSelectorException e){
+                throw new ClosedChannelException();
+            }
+        }
+    }
+
+    /**Wakes a sender waiting for room, to be called once the channel is closed.*/
+    public void close(){
+        Selector selector = this.selector;
+        if(selector == null) return;
+        try{
+            selector.close();
+        }catch(IOException e){
+            e.printStackTrace();
+        }
+    }
+}
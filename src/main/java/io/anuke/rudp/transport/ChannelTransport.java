@@ -0,0 +1,132 @@
+package io.anuke.rudp.transport;
+
+import io.anuke.rudp.RUDPConstants;
+import io.anuke.rudp.utils.BufferPool;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+
+/**
+ * Non-blocking {@link DatagramChannel} transport. Receives go through a single direct buffer owned by the receiving
+ * thread, sends borrow direct buffers from a shared pool so neither path allocates per datagram. Sends wait for room
+ * in a full socket send buffer, as the blocking {@link SocketTransport} does.
+ */
+public class ChannelTransport implements Transport{
+    private final DatagramChannel channel;
+    private final Selector selector;
+    private final ChannelSender sender;
+    private final BufferPool pool;
+    private final ByteBuffer receiveBuffer;
+    private volatile int timeout;
+
+    public ChannelTransport(int port) throws IOException{
+        this(port, false);
+    }
+
+    public ChannelTransport(int port, boolean reusePort) throws IOException{
+        this(bind(port, reusePort), new BufferPool(RUDPConstants.RECEIVE_MAX_SIZE, RUDPConstants.BUFFER_POOL_SIZE));
+    }
+
+    public ChannelTransport(DatagramChannel channel, BufferPool pool) throws IOException{
+        this.channel = channel;
+        this.pool = pool;
+        this.selector = Selector.open();
+        this.sender = new ChannelSender(channel);
+        this.receiveBuffer = pool.acquire();
+        channel.configureBlocking(false);
+        channel.register(selector, SelectionKey.OP_READ);
+    }
+
+    private static DatagramChannel bind(int port, boolean reusePort) throws IOException{
+        DatagramChannel channel = DatagramChannel.open();
+        try{
+            if(reusePort) ReusePort.enable(channel);
+            return channel.bind(port == 0 ? null : new InetSocketAddress(port));
+        }catch(IOException | RuntimeException e){
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public void send(byte[] data, int offset, int length, InetSocketAddress endpoint) throws IOException{
+        ByteBuffer buffer = pool.acquire();
+        try{
+            buffer.put(data, offset, length).flip();
+            sender.send(buffer, endpoint);
+        }finally{
+            pool.release(buffer);
+        }
+    }
+
+    @Override
+    public void send(ByteBuffer data, InetSocketAddress endpoint) throws IOException{
+        if(data.isDirect()){
+            sender.send(data, endpoint);
+            return;
+        }
+        ByteBuffer buffer = pool.acquire();
+        try{
+            buffer.put(data).flip();
+            sender.send(buffer, endpoint);
+        }finally{
+            pool.release(buffer);
+        }
+    }
+
+    @Override
+    public void receive(PacketReceiver receiver) throws IOException{
+        while(true){
+            receiveBuffer.clear();
+            InetSocketAddress source = (InetSocketAddress) channel.receive(receiveBuffer);
+            if(source != null){
+                receiveBuffer.flip();
+                receiver.received(receiveBuffer, source.getAddress(), source.getPort());
+                return;
+            }
+            int ready;
+            try{
+                ready = selector.select(timeout);
+                selector.selectedKeys().clear();
+            }catch(ClosedSelectorException e){
+                throw new ClosedChannelException();
+            }
+            if(!channel.isOpen()) throw new ClosedChannelException();
+            if(ready == 0 && timeout > 0) throw new SocketTimeoutException("Receive timed out");
+        }
+    }
+
+    @Override
+    public void setTimeout(int timeout){
+        this.timeout = timeout;
+    }
+
+    @Override
+    public int getLocalPort(){
+        return channel.socket().getLocalPort();
+    }
+
+    @Override
+    public boolean isClosed(){
+        return !channel.isOpen();
+    }
+
+    @Override
+    public void close(){
+        try{
+            selector.wakeup();
+            channel.close();
+            selector.close();
+            sender.close();
+        }catch(IOException e){
+            e.printStackTrace();
+        }
+    }
+}
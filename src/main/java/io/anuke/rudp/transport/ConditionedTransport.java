@@ -0,0 +1,79 @@
+package io.anuke.rudp.transport;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Transport decorator applying {@link NetworkConditions} to the datagrams sent through a real socket,
+ * to try a game or a benchmark over a bad network without leaving the machine. Receiving is left untouched,
+ * so impairing both directions takes conditioned transports on both sides.
+ */
+public class ConditionedTransport implements Transport{
+    private final Transport transport;
+    private final LinkScheduler scheduler;
+    private final Link link;
+
+    public ConditionedTransport(Transport transport, NetworkConditions conditions, long seed){
+        this.transport = transport;
+        this.scheduler = new LinkScheduler("RUDP conditioned transport " + transport.getLocalPort());
+        this.link = new Link(conditions, scheduler, seed);
+    }
+
+    /**
+     * @return factory wrapping every transport opened by the given one, seeded in opening order
+     */
+    public static TransportFactory wrap(TransportFactory factory, NetworkConditions conditions, long seed){
+        AtomicLong opened = new AtomicLong();
+        return (port, reusePort) -> new ConditionedTransport(factory.open(port, reusePort), conditions, seed * 31 + opened.getAndIncrement());
+    }
+
+    @Override
+    public void send(byte[] data, int offset, int length, InetSocketAddress endpoint){
+        byte[] copy = new byte[length];
+        System.arraycopy(data, offset, copy, 0, length);
+        link.send(copy, arrived -> deliver(arrived, endpoint));
+    }
+
+    @Override
+    public void send(ByteBuffer data, InetSocketAddress endpoint){
+        byte[] copy = new byte[data.remaining()];
+        data.get(copy);
+        link.send(copy, arrived -> deliver(arrived, endpoint));
+    }
+
+    private void deliver(byte[] data, InetSocketAddress endpoint){
+        try{
+            transport.send(data, 0, data.length, endpoint);
+        }catch(IOException e){
+            if(!transport.isClosed()) e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void receive(PacketReceiver receiver) throws IOException{
+        transport.receive(receiver);
+    }
+
+    @Override
+    public void setTimeout(int timeout) throws IOException{
+        transport.setTimeout(timeout);
+    }
+
+    @Override
+    public int getLocalPort(){
+        return transport.getLocalPort();
+    }
+
+    @Override
+    public boolean isClosed(){
+        return transport.isClosed();
+    }
+
+    @Override
+    public void close(){
+        scheduler.stop();
+        transport.close();
+    }
+}
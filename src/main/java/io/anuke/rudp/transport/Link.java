@@ -0,0 +1,51 @@
+package io.anuke.rudp.transport;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * One direction of traffic under some {@link NetworkConditions}. Every datagram draws the same number of values from
+ * the seeded random, so a link makes the same decisions for the same sequence of datagrams.
+ */
+final class Link{
+    //longest a datagram waits for bandwidth before being dropped, like a full router queue
+    private static final long MAX_QUEUE_DELAY = TimeUnit.SECONDS.toNanos(1);
+
+    private final NetworkConditions conditions;
+    private final LinkScheduler scheduler;
+    private final Random random;
+    private long nextFree;
+
+    Link(NetworkConditions conditions, LinkScheduler scheduler, long seed){
+        this.conditions = conditions;
+        this.scheduler = scheduler;
+        this.random = new Random(seed);
+    }
+
+    /**@param data datagram owned by the link from now on, passed to deliver once it arrives*/
+    synchronized void send(byte[] data, Consumer<byte[]> deliver){
+        double lossRoll = random.nextDouble(), duplicateRoll = random.nextDouble(), reorderRoll = random.nextDouble();
+        double jitterRoll = random.nextDouble(), duplicateJitterRoll = random.nextDouble();
+        if(lossRoll < conditions.getLoss()) return;
+
+        long now = System.nanoTime();
+        long departure = now;
+        long bandwidth = conditions.getBandwidth();
+        if(bandwidth > 0){
+            departure = nextFree - now > 0 ? nextFree : now;
+            if(departure - now > MAX_QUEUE_DELAY) return;
+            nextFree = departure + data.length * 1_000_000_000L / bandwidth;
+            departure = nextFree;
+        }
+
+        long arrival = departure + conditions.getLatency();
+        if(reorderRoll < conditions.getReordering()) arrival += conditions.getReorderDelay();
+        scheduler.schedule(arrival + (long) (jitterRoll * conditions.getJitter()), () -> deliver.accept(data));
+        if(duplicateRoll < conditions.getDuplication()){
+            //copied now, receivers may write to the first copy
+            byte[] copy = data.clone();
+            scheduler.schedule(arrival + (long) (duplicateJitterRoll * conditions.getJitter()), () -> deliver.accept(copy));
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package io.anuke.rudp.transport;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+/**Thread delivering delayed datagrams at their arrival time, in scheduling order when times are equal.*/
+final class LinkScheduler{
+    private final PriorityQueue<Delivery> queue = new PriorityQueue<>();
+    private final Thread thread;
+    private long order;
+    private boolean running = true;
+
+    LinkScheduler(String name){
+        thread = new Thread(this::run, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**@param time System.nanoTime() to run the task at*/
+    void schedule(long time, Runnable task){
+        synchronized(queue){
+            if(!running) return;
+            queue.add(new Delivery(time, order++, task));
+            if(queue.peek().task == task) queue.notify();
+        }
+    }
+
+    void stop(){
+        synchronized(queue){
+            running = false;
+            queue.clear();
+            queue.notify();
+        }
+    }
+
+    private void run(){
+        while(true){
+            Delivery next;
+            synchronized(queue){
+                while(true){
+                    if(!running) return;
+                    next = queue.peek();
+                    long wait = next == null ? 0 : next.time - System.nanoTime();
+                    if(next != null && wait <= 0) break;
+                    try{
+                        if(next == null) queue.wait();
+                        else TimeUnit.NANOSECONDS.timedWait(queue, wait);
+                    }catch(InterruptedException e){
+                        return;
+                    }
+                }
+                queue.poll();
+            }
+            try{
+                next.task.run();
+            }catch(Exception e){
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private static class Delivery implements Comparable<Delivery>{
+        final long time, order;
+        final Runnable task;
+
+        Delivery(long time, long order, Runnable task){
+            this.time = time;
+            this.order = order;
+            this.task = task;
+        }
+
+        @Override
+        public int compareTo(Delivery other){
+            int compare = Long.compare(time - other.time, 0);
+            return compare != 0 ? compare : Long.compare(order, other.order);
+        }
+    }
+}
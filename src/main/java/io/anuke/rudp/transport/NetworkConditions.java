@@ -0,0 +1,91 @@
+package io.anuke.rudp.transport;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Impairments applied to datagrams by a {@link SimulatedNetwork} or a {@link ConditionedTransport}.
+ * Defaults to a perfect network; settings can be changed while traffic flows, e.g. to simulate an outage.
+ */
+public class NetworkConditions{
+    private volatile double loss, duplication, reordering;
+    private volatile long latency, jitter, reorderDelay;
+    private volatile long bandwidth;
+
+    /**@param probability chance of each datagram being dropped*/
+    public NetworkConditions loss(double probability){
+        this.loss = checkProbability(probability);
+        return this;
+    }
+
+    /**@param millis one way delay of every datagram*/
+    public NetworkConditions latency(long millis){
+        this.latency = TimeUnit.MILLISECONDS.toNanos(millis);
+        return this;
+    }
+
+    /**@param millis random delay added to the latency, uniformly up to this much*/
+    public NetworkConditions jitter(long millis){
+        this.jitter = TimeUnit.MILLISECONDS.toNanos(millis);
+        return this;
+    }
+
+    /**@param probability chance of each datagram being delivered twice, the copy with its own jitter*/
+    public NetworkConditions duplication(double probability){
+        this.duplication = checkProbability(probability);
+        return this;
+    }
+
+    /**
+     * @param probability chance of each datagram being held back
+     * @param millis extra delay of held back datagrams, letting the following ones overtake them
+     */
+    public NetworkConditions reordering(double probability, long millis){
+        this.reordering = checkProbability(probability);
+        this.reorderDelay = TimeUnit.MILLISECONDS.toNanos(millis);
+        return this;
+    }
+
+    /**@param bytesPerSecond rate datagrams leave at, queueing behind each other, 0 for unlimited*/
+    public NetworkConditions bandwidth(long bytesPerSecond){
+        if(bytesPerSecond < 0) throw new IllegalArgumentException("Bandwidth can't be negative");
+        this.bandwidth = bytesPerSecond;
+        return this;
+    }
+
+    public double getLoss(){
+        return loss;
+    }
+
+    public double getDuplication(){
+        return duplication;
+    }
+
+    public double getReordering(){
+        return reordering;
+    }
+
+    /**@return one way delay in nanoseconds*/
+    public long getLatency(){
+        return latency;
+    }
+
+    /**@return largest random extra delay in nanoseconds*/
+    public long getJitter(){
+        return jitter;
+    }
+
+    /**@return delay of reordered datagrams in nanoseconds*/
+    public long getReorderDelay(){
+        return reorderDelay;
+    }
+
+    /**@return bytes per second, 0 for unlimited*/
+    public long getBandwidth(){
+        return bandwidth;
+    }
+
+    private static double checkProbability(double probability){
+        if(probability < 0 || probability > 1) throw new IllegalArgumentException("Probability must be between 0 and 1");
+        return probability;
+    }
+}
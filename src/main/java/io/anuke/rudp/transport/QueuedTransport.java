@@ -0,0 +1,153 @@
+package io.anuke.rudp.transport;
+
+import io.anuke.rudp.RUDPConstants;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Transport decorator funnelling every send through one writer thread, so concurrent senders never contend
+ * on the socket. Senders copy the datagram into a pooled buffer and enqueue it without locking; the writer
+ * drains the queue back to back and only parks once it is empty. Datagrams beyond the queue capacity are dropped
+ * and counted, reliable ones are recovered by retransmission. Receiving goes straight to the wrapped transport.
+ */
+public class QueuedTransport implements Transport{
+    private final Transport transport;
+    private final int capacity;
+    private final ConcurrentLinkedQueue<Outgoing> queue = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Outgoing> pool = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger depth = new AtomicInteger();
+    private final LongAdder dropped = new LongAdder();
+    private final Thread writer;
+    private volatile boolean waiting;
+    private volatile boolean closed;
+
+    public QueuedTransport(Transport transport){
+        this(transport, RUDPConstants.OUTBOUND_QUEUE_SIZE);
+    }
+
+    /**@param capacity datagrams waiting to be written before new ones are dropped*/
+    public QueuedTransport(Transport transport, int capacity){
+        if(capacity < 1) throw new IllegalArgumentException("Capacity must be at least 1");
+        this.transport = transport;
+        this.capacity = capacity;
+        this.writer = new Thread(this::write, "RUDP writer " + transport.getLocalPort());
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @Override
+    public void send(byte[] data, int offset, int length, InetSocketAddress endpoint){
+        Outgoing packet = reserve(length);
+        if(packet == null) return;
+        packet.buffer.put(data, offset, length).flip();
+        enqueue(packet, endpoint);
+    }
+
+    @Override
+    public void send(ByteBuffer data, InetSocketAddress endpoint){
+        Outgoing packet = reserve(data.remaining());
+        if(packet == null) return;
+        packet.buffer.put(data).flip();
+        enqueue(packet, endpoint);
+    }
+
+    /**@return datagrams waiting for the writer*/
+    public int getQueueDepth(){
+        return depth.get();
+    }
+
+    /**@return datagrams dropped because the queue was full*/
+    public long getDropped(){
+        return dropped.sum();
+    }
+
+    public int getCapacity(){
+        return capacity;
+    }
+
+    private Outgoing reserve(int length){
+        if(closed) return null;
+        if(length > RUDPConstants.RECEIVE_MAX_SIZE) throw new IllegalArgumentException("Datagram too large: " + length);
+        if(depth.incrementAndGet() > capacity){
+            depth.decrementAndGet();
+            dropped.increment();
+            return null;
+        }
+        Outgoing packet = pool.poll();
+        return packet == null ? new Outgoing() : packet;
+    }
+
+    private void enqueue(Outgoing packet, InetSocketAddress endpoint){
+        packet.endpoint = endpoint;
+        queue.offer(packet);
+        //pairs with the writer setting waiting before checking the queue, one of the two always sees the other
+        if(waiting) LockSupport.unpark(writer);
+    }
+
+    private void write(){
+        while(true){
+            Outgoing packet = queue.poll();
+            if(packet == null){
+                if(closed) return;
+                waiting = true;
+                if(queue.isEmpty() && !closed) LockSupport.park(this);
+                waiting = false;
+                continue;
+            }
+            depth.decrementAndGet();
+            try{
+                transport.send(packet.buffer, packet.endpoint);
+            }catch(IOException e){
+                if(!transport.isClosed()) e.printStackTrace();
+            }
+            packet.buffer.clear();
+            packet.endpoint = null;
+            pool.offer(packet);
+        }
+    }
+
+    @Override
+    public void receive(PacketReceiver receiver) throws IOException{
+        transport.receive(receiver);
+    }
+
+    @Override
+    public void setTimeout(int timeout) throws IOException{
+        transport.setTimeout(timeout);
+    }
+
+    @Override
+    public int getLocalPort(){
+        return transport.getLocalPort();
+    }
+
+    @Override
+    public boolean isClosed(){
+        return closed;
+    }
+
+    /**Writes the datagrams already queued, then closes the wrapped transport.*/
+    @Override
+    public void close(){
+        if(closed) return;
+        closed = true;
+        LockSupport.unpark(writer);
+        try{
+            if(Thread.currentThread() != writer) writer.join(1000);
+        }catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+        transport.close();
+    }
+
+    private static class Outgoing{
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(RUDPConstants.RECEIVE_MAX_SIZE);
+        InetSocketAddress endpoint;
+    }
+}
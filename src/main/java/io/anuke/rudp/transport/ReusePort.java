@@ -0,0 +1,61 @@
+package io.anuke.rudp.transport;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.DatagramSocket;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * SO_REUSEPORT, letting several sockets bind the same port with the kernel spreading datagrams between them by source.
+ * Only exposed by JDK 9+ and only on some platforms, so it is looked up reflectively to keep the Java 8 target.
+ */
+final class ReusePort{
+    private static final SocketOption<Boolean> OPTION = find();
+
+    private ReusePort(){
+    }
+
+    static boolean isSupported(){
+        if(OPTION == null) return false;
+        try(DatagramChannel channel = DatagramChannel.open()){
+            return channel.supportedOptions().contains(OPTION);
+        }catch(IOException e){
+            return false;
+        }
+    }
+
+    static void enable(DatagramChannel channel) throws IOException{
+        channel.setOption(option(), true);
+    }
+
+    static void enable(DatagramSocket socket) throws IOException{
+        SocketOption<Boolean> option = option();
+        try{
+            //DatagramSocket#setOption is JDK 9+ as well
+            Method setOption = DatagramSocket.class.getMethod("setOption", SocketOption.class, Object.class);
+            setOption.invoke(socket, option, true);
+        }catch(InvocationTargetException e){
+            if(e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IOException("Unable to enable SO_REUSEPORT", e.getCause());
+        }catch(ReflectiveOperationException e){
+            throw new UnsupportedOperationException("SO_REUSEPORT requires Java 9 or newer");
+        }
+    }
+
+    private static SocketOption<Boolean> option(){
+        if(OPTION == null) throw new UnsupportedOperationException("SO_REUSEPORT requires Java 9 or newer");
+        return OPTION;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static SocketOption<Boolean> find(){
+        try{
+            return (SocketOption<Boolean>) StandardSocketOptions.class.getField("SO_REUSEPORT").get(null);
+        }catch(ReflectiveOperationException e){
+            return null;
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package io.anuke.rudp.transport;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.BindException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory network for tests and benchmarks: transports opened on it exchange datagrams by port, through links
+ * applying {@link NetworkConditions}. Loss, duplication, reordering and jitter are drawn from per-link randoms derived
+ * from the seed, so a run with the same seed and the same traffic makes the same decisions; delays are real time,
+ * as the protocol timers are. Every transport is reached through the loopback address, whatever address is used.
+ */
+public class SimulatedNetwork implements TransportFactory{
+    private static final int FIRST_EPHEMERAL_PORT = 49152;
+
+    private final long seed;
+    private final NetworkConditions conditions;
+    private final LinkScheduler scheduler = new LinkScheduler("RUDP network simulator");
+    private final ConcurrentHashMap<Integer, SimulatedTransport> transports = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, Link> links = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, NetworkConditions> linkConditions = new ConcurrentHashMap<>();
+    private final InetAddress address = InetAddress.getLoopbackAddress();
+    private int nextPort = FIRST_EPHEMERAL_PORT;
+
+    /**Creates a perfect network, until its {@link #getConditions() conditions} are changed.*/
+    public SimulatedNetwork(long seed){
+        this(seed, new NetworkConditions());
+    }
+
+    public SimulatedNetwork(long seed, NetworkConditions conditions){
+        this.seed = seed;
+        this.conditions = conditions;
+    }
+
+    /**@return conditions of every link without its own*/
+    public NetworkConditions getConditions(){
+        return conditions;
+    }
+
+    /**Applies separate conditions to the datagrams sent from one port to another, e.g. for an asymmetric path.*/
+    public void setConditions(int fromPort, int toPort, NetworkConditions conditions){
+        linkConditions.put(key(fromPort, toPort), conditions);
+        links.remove(key(fromPort, toPort));
+    }
+
+    /**@throws UnsupportedOperationException if reusePort is set, each port has a single transport*/
+    @Override
+    public synchronized Transport open(int port, boolean reusePort) throws IOException{
+        if(reusePort) throw new UnsupportedOperationException("Ports of a simulated network can't be shared");
+        if(port == 0){
+            while(transports.containsKey(nextPort)) nextPort++;
+            port = nextPort++;
+        }else if(transports.containsKey(port)){
+            throw new BindException("Port " + port + " is already in use");
+        }
+        SimulatedTransport transport = new SimulatedTransport(port);
+        transports.put(port, transport);
+        return transport;
+    }
+
+    /**Stops delivering datagrams, the transports still open stop receiving anything.*/
+    public void close(){
+        scheduler.stop();
+    }
+
+    @Override
+    public String toString(){
+        return "simulated network";
+    }
+
+    private void send(int fromPort, byte[] data, int toPort){
+        long key = key(fromPort, toPort);
+        Link link = links.get(key);
+        if(link == null){
+            NetworkConditions linkConditions = this.linkConditions.getOrDefault(key, conditions);
+            link = links.computeIfAbsent(key, k -> new Link(linkConditions, scheduler, seed * 31 + k));
+        }
+        link.send(data, arrived -> {
+            SimulatedTransport destination = transports.get(toPort);
+            if(destination != null) destination.inbox.offer(new Datagram(arrived, fromPort));
+        });
+    }
+
+    private static long key(int fromPort, int toPort){
+        return ((long) fromPort << 32) | toPort;
+    }
+
+    private static class Datagram{
+        //wakes up receivers once the transport is closed
+        static final Datagram CLOSED = new Datagram(new byte[0], 0);
+
+        final byte[] data;
+        final int port;
+
+        Datagram(byte[] data, int port){
+            this.data = data;
+            this.port = port;
+        }
+    }
+
+    private class SimulatedTransport implements Transport{
+        final LinkedBlockingQueue<Datagram> inbox = new LinkedBlockingQueue<>();
+        final int port;
+        volatile int timeout;
+        volatile boolean closed;
+
+        SimulatedTransport(int port){
+            this.port = port;
+        }
+
+        @Override
+        public void send(byte[] data, int offset, int length, InetSocketAddress endpoint) throws IOException{
+            if(closed) throw new SocketException("Socket closed");
+            byte[] copy = new byte[length];
+            System.arraycopy(data, offset, copy, 0, length);
+            SimulatedNetwork.this.send(port, copy, endpoint.getPort());
+        }
+
+        @Override
+        public void send(ByteBuffer data, InetSocketAddress endpoint) throws IOException{
+            if(closed) throw new SocketException("Socket closed");
+            byte[] copy = new byte[data.remaining()];
+            data.get(copy);
+            SimulatedNetwork.this.send(port, copy, endpoint.getPort());
+        }
+
+        @Override
+        public void receive(PacketReceiver receiver) throws IOException{
+            if(closed) throw new SocketException("Socket closed");
+            Datagram datagram;
+            try{
+                datagram = timeout == 0 ? inbox.take() : inbox.poll(timeout, TimeUnit.MILLISECONDS);
+            }catch(InterruptedException e){
+                throw new InterruptedIOException("Receive interrupted");
+            }
+            if(datagram == null) throw new SocketTimeoutException("Receive timed out");
+            if(datagram == Datagram.CLOSED){
+                inbox.offer(Datagram.CLOSED);
+                throw new SocketException("Socket closed");
+            }
+            receiver.received(ByteBuffer.wrap(datagram.data), address, datagram.port);
+        }
+
+        @Override
+        public void setTimeout(int timeout){
+            this.timeout = timeout;
+        }
+
+        @Override
+        public int getLocalPort(){
+            return port;
+        }
+
+        @Override
+        public boolean isClosed(){
+            return closed;
+        }
+
+        @Override
+        public void close(){
+            if(closed) return;
+            closed = true;
+            transports.remove(port, this);
+            inbox.offer(Datagram.CLOSED);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package io.anuke.rudp.transport;
+
+import io.anuke.rudp.RUDPConstants;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+
+public class SocketTransport implements Transport{
+    private final DatagramSocket socket;
+    private final byte[] receiveBuffer = new byte[RUDPConstants.RECEIVE_MAX_SIZE];
+    private final ByteBuffer receiveView = ByteBuffer.wrap(receiveBuffer);
+    private final DatagramPacket receivePacket = new DatagramPacket(receiveBuffer, receiveBuffer.length);
+    private final ThreadLocal<DatagramPacket> sendPackets = ThreadLocal.withInitial(() -> new DatagramPacket(new byte[0], 0));
+    private final ThreadLocal<byte[]> sendBuffers = ThreadLocal.withInitial(() -> new byte[RUDPConstants.RECEIVE_MAX_SIZE]);
+
+    public SocketTransport(int port) throws IOException{
+        this(port, false);
+    }
+
+    public SocketTransport(int port, boolean reusePort) throws IOException{
+        this(bind(port, reusePort));
+    }
+
+    public SocketTransport(DatagramSocket socket){
+        this.socket = socket;
+    }
+
+    private static DatagramSocket bind(int port, boolean reusePort) throws IOException{
+        if(!reusePort) return port == 0 ? new DatagramSocket() : new DatagramSocket(port);
+        DatagramSocket socket = new DatagramSocket(null);
+        try{
+            ReusePort.enable(socket);
+            socket.bind(new InetSocketAddress(port));
+        }catch(IOException | RuntimeException e){
+            socket.close();
+            throw e;
+        }
+        return socket;
+    }
+
+    @Override
+    public void send(byte[] data, int offset, int length, InetSocketAddress endpoint) throws IOException{
+        DatagramPacket packet = sendPackets.get();
+        packet.setData(data, offset, length);
+        packet.setSocketAddress(endpoint);
+        socket.send(packet);
+    }
+
+    @Override
+    public void send(ByteBuffer data, InetSocketAddress endpoint) throws IOException{
+        if(data.hasArray()){
+            send(data.array(), data.arrayOffset() + data.position(), data.remaining(), endpoint);
+        }else{
+            int length = data.remaining();
+            byte[] buffer = sendBuffers.get();
+            if(buffer.length < length){
+                buffer = new byte[length];
+                sendBuffers.set(buffer);
+            }
+            data.get(buffer, 0, length);
+            send(buffer, 0, length, endpoint);
+        }
+    }
+
+    @Override
+    public void receive(PacketReceiver receiver) throws IOException{
+        receivePacket.setLength(receiveBuffer.length);
+        socket.receive(receivePacket);
+        //some JDKs complete a pending receive with an empty packet when the socket is closed concurrently
+        if(socket.isClosed()) throw new SocketException("Socket closed");
+        receiveView.limit(receivePacket.getLength()).position(0);
+        receiver.received(receiveView, receivePacket.getAddress(), receivePacket.getPort());
+    }
+
+    @Override
+    public void setTimeout(int timeout) throws IOException{
+        socket.setSoTimeout(timeout);
+    }
+
+    @Override
+    public int getLocalPort(){
+        return socket.getLocalPort();
+    }
+
+    @Override
+    public boolean isClosed(){
+        return socket.isClosed();
+    }
+
+    @Override
+    public void close(){
+        socket.close();
+    }
+}
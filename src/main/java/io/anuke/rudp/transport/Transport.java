@@ -0,0 +1,42 @@
+package io.anuke.rudp.transport;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * Datagram engine used by {@link io.anuke.rudp.rudp.RUDPServer} and {@link io.anuke.rudp.rudp.RUDPClient}.
+ * Implementations reuse their buffers, so received data is only valid for the duration of the receiver call.
+ */
+public interface Transport{
+
+    /**Sends length bytes of data starting at offset to the given endpoint.*/
+    void send(byte[] data, int offset, int length, InetSocketAddress endpoint) throws IOException;
+
+    /**Sends the remaining bytes of the buffer to the given endpoint. The buffer position is not preserved.*/
+    void send(ByteBuffer data, InetSocketAddress endpoint) throws IOException;
+
+    /**
+     * Blocks until a datagram arrives and passes it to the receiver.
+     *
+     * @throws java.net.SocketTimeoutException if no datagram arrived before the timeout
+     */
+    void receive(PacketReceiver receiver) throws IOException;
+
+    /**Sets the receive timeout in milliseconds, 0 meaning no timeout.*/
+    void setTimeout(int timeout) throws IOException;
+
+    int getLocalPort();
+
+    boolean isClosed();
+
+    void close();
+
+    interface PacketReceiver{
+        /**
+         * @param data Datagram contents between position 0 and the limit, writable. Must not be kept after returning.
+         */
+        void received(ByteBuffer data, InetAddress address, int port);
+    }
+}
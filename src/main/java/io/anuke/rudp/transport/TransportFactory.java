@@ -0,0 +1,20 @@
+package io.anuke.rudp.transport;
+
+import java.io.IOException;
+
+/**Opens the transports of servers and clients: {@link TransportType} for real sockets, {@link SimulatedNetwork} in memory.*/
+public interface TransportFactory{
+
+    /**Opens a transport bound to the given port, or to any free port when port is 0.*/
+    default Transport open(int port) throws IOException{
+        return open(port, false);
+    }
+
+    /**
+     * Opens a transport bound to the given port, or to any free port when port is 0.
+     *
+     * @param reusePort let other transports bind the same port, see {@link TransportType#isReusePortSupported()}
+     * @throws UnsupportedOperationException if reusePort is set but not supported
+     */
+    Transport open(int port, boolean reusePort) throws IOException;
+}
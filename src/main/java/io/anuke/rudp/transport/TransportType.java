@@ -0,0 +1,29 @@
+package io.anuke.rudp.transport;
+
+import java.io.IOException;
+
+public enum TransportType implements TransportFactory{
+    /**Classic blocking {@link java.net.DatagramSocket}, one reused packet per thread.*/
+    DATAGRAM_SOCKET{
+        @Override
+        public Transport open(int port, boolean reusePort) throws IOException{
+            return new SocketTransport(port, reusePort);
+        }
+    },
+    /**{@link java.nio.channels.DatagramChannel} backed by pooled direct buffers.*/
+    DATAGRAM_CHANNEL{
+        @Override
+        public Transport open(int port, boolean reusePort) throws IOException{
+            return new ChannelTransport(port, reusePort);
+        }
+    };
+
+    /**@param reusePort set SO_REUSEPORT before binding so other transports can share the port*/
+    @Override
+    public abstract Transport open(int port, boolean reusePort) throws IOException;
+
+    /**@return whether this JDK and platform support SO_REUSEPORT*/
+    public static boolean isReusePortSupported(){
+        return ReusePort.isSupported();
+    }
+}
@@ -0,0 +1,43 @@
+package io.anuke.rudp.utils;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded pool of direct buffers. Buffers are handed out cleared; once the pool is empty new ones are allocated,
+ * and buffers released while the pool is full are left to the GC.
+ */
+public class BufferPool{
+    private final ConcurrentLinkedQueue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final int bufferSize;
+    private final int capacity;
+
+    public BufferPool(int bufferSize, int capacity){
+        this.bufferSize = bufferSize;
+        this.capacity = capacity;
+    }
+
+    public ByteBuffer acquire(){
+        ByteBuffer buffer = buffers.poll();
+        if(buffer == null) return ByteBuffer.allocateDirect(bufferSize);
+        size.decrementAndGet();
+        return buffer;
+    }
+
+    public void release(ByteBuffer buffer){
+        if(buffer.capacity() != bufferSize || size.get() >= capacity) return;
+        buffer.clear();
+        size.incrementAndGet();
+        buffers.offer(buffer);
+    }
+
+    public int getBufferSize(){
+        return bufferSize;
+    }
+
+    public int size(){
+        return size.get();
+    }
+}
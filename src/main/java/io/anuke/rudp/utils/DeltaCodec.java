@@ -0,0 +1,124 @@
+package io.anuke.rudp.utils;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Encodes a byte array as its difference from a baseline: runs of changed bytes, each preceded by the count of
+ * unchanged bytes before it. Bytes past the end of the baseline count as 0, so encoding without a baseline
+ * skips zeros. Layout: {@code [length] ([skip] [count] [count bytes])*}, numbers as unsigned varints;
+ * unchanged bytes after the last run are implicit.
+ */
+public final class DeltaCodec{
+    /**
+     * Unchanged bytes in a row that end a run, fewer stay inside it. A new run costs at most this many bytes
+     * of varints, so an encoding never exceeds the data by more than {@link #MAX_OVERHEAD}.
+     */
+    private static final int MIN_SKIP = 8;
+    /**Length varint, plus skip and count varints of the first run*/
+    public static final int MAX_OVERHEAD = 15;
+
+    private DeltaCodec(){
+    }
+
+    /**@return size of the largest encoding of length bytes, whatever the baseline*/
+    public static int maxEncodedLength(int length){
+        return length + MAX_OVERHEAD;
+    }
+
+    /**
+     * Encodes data[offset, offset + length) against baseline[0, baselineLength).
+     *
+     * @param out receives the encoding at outOffset, with room for {@link #maxEncodedLength(int)} bytes
+     * @return position in out after the encoding
+     */
+    public static int encode(byte[] baseline, int baselineLength, byte[] data, int offset, int length, byte[] out, int outOffset){
+        int position = writeVarint(out, outOffset, length);
+        int last = 0, i = 0;
+        while(i < length){
+            while(i < length && data[offset + i] == at(baseline, baselineLength, i)) i++;
+            if(i == length) break;
+
+            int start = i, end = i + 1, unchanged = 0;
+            for(int j = end; j < length && unchanged < MIN_SKIP; j++){
+                if(data[offset + j] == at(baseline, baselineLength, j)){
+                    unchanged++;
+                }else{
+                    unchanged = 0;
+                    end = j + 1;
+                }
+            }
+            position = writeVarint(out, position, start - last);
+            position = writeVarint(out, position, end - start);
+            System.arraycopy(data, offset + start, out, position, end - start);
+            position += end - start;
+            last = i = end;
+        }
+        return position;
+    }
+
+    /**
+     * Reads the length of the array encoded from the position of a buffer, leaving the position after it.
+     *
+     * @return -1 if the encoding is truncated
+     */
+    public static int decodeLength(ByteBuffer in){
+        try{
+            return readVarint(in);
+        }catch(BufferUnderflowException e){
+            return -1;
+        }
+    }
+
+    /**
+     * Decodes the runs following the length, from the position to the limit of a buffer.
+     *
+     * @param out receives the array in [0, length), length as returned by {@link #decodeLength(ByteBuffer)}
+     * @return false if the encoding is malformed, out then holds garbage
+     */
+    public static boolean decode(byte[] baseline, int baselineLength, ByteBuffer in, byte[] out, int length){
+        int copied = Math.min(length, baselineLength);
+        if(baseline != null && copied > 0) System.arraycopy(baseline, 0, out, 0, copied);
+        Arrays.fill(out, copied, length, (byte) 0);
+
+        int position = 0;
+        try{
+            while(in.hasRemaining()){
+                int skip = readVarint(in), count = readVarint(in);
+                if(skip < 0 || count < 0 || skip > length - position) return false;
+                position += skip;
+                if(count > length - position || count > in.remaining()) return false;
+                in.get(out, position, count);
+                position += count;
+            }
+        }catch(BufferUnderflowException e){
+            return false;
+        }
+        return true;
+    }
+
+    private static byte at(byte[] baseline, int baselineLength, int index){
+        return index < baselineLength ? baseline[index] : 0;
+    }
+
+    private static int writeVarint(byte[] out, int position, int value){
+        while((value & ~0x7F) != 0){
+            out[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out[position++] = (byte) value;
+        return position;
+    }
+
+    /**@return the value read, negative if it does not fit an int*/
+    private static int readVarint(ByteBuffer in){
+        int value = 0;
+        for(int shift = 0; shift < 35; shift += 7){
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if(b >= 0) return shift == 28 && (b & 0x70) != 0 ? -1 : value;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,71 @@
+package io.anuke.rudp.utils;
+
+import java.net.InetAddress;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Concurrent map keyed by remote endpoint (address, port).
+ * Lookups go through a per-thread probe key, so demultiplexing a datagram does not allocate.
+ */
+public class EndpointMap<T>{
+    private final ConcurrentHashMap<Endpoint, T> map = new ConcurrentHashMap<>();
+    private final ThreadLocal<Endpoint> probe = ThreadLocal.withInitial(Endpoint::new);
+
+    public T get(InetAddress address, int port){
+        Endpoint key = probe.get().set(address, port);
+        T value = map.get(key);
+        key.address = null;
+        return value;
+    }
+
+    /**@return the value previously mapped to this endpoint, or null*/
+    public T put(InetAddress address, int port, T value){
+        return map.put(new Endpoint().set(address, port), value);
+    }
+
+    /**Removes the endpoint only if it is still mapped to the given value.*/
+    public boolean remove(InetAddress address, int port, T value){
+        Endpoint key = probe.get().set(address, port);
+        boolean removed = map.remove(key, value);
+        key.address = null;
+        return removed;
+    }
+
+    public Collection<T> values(){
+        return map.values();
+    }
+
+    public int size(){
+        return map.size();
+    }
+
+    public void clear(){
+        map.clear();
+    }
+
+    private static final class Endpoint{
+        InetAddress address;
+        int port;
+        int hash;
+
+        Endpoint set(InetAddress address, int port){
+            this.address = address;
+            this.port = port;
+            this.hash = address.hashCode() * 31 + port;
+            return this;
+        }
+
+        @Override
+        public int hashCode(){
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o){
+            if(!(o instanceof Endpoint)) return false;
+            Endpoint other = (Endpoint) o;
+            return port == other.port && address.equals(other.address);
+        }
+    }
+}
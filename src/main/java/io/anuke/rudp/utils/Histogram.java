@@ -0,0 +1,63 @@
+package io.anuke.rudp.utils;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram with fixed buckets, cheap enough to record from any thread on every packet.
+ * Bucket i counts values up to bounds[i], the last bucket counts the values above every bound.
+ */
+public final class Histogram{
+    private final long[] bounds;
+    private final LongAdder[] counts;
+
+    /**@param bounds inclusive upper bounds of the buckets, ascending*/
+    public Histogram(long... bounds){
+        for(int i = 1; i < bounds.length; i++){
+            if(bounds[i] <= bounds[i - 1]) throw new IllegalArgumentException("Bounds must be ascending");
+        }
+        this.bounds = bounds.clone();
+        this.counts = new LongAdder[bounds.length + 1];
+        for(int i = 0; i < counts.length; i++) counts[i] = new LongAdder();
+    }
+
+    public void record(long value){
+        int index = Arrays.binarySearch(bounds, value);
+        counts[index >= 0 ? index : -index - 1].increment();
+    }
+
+    public long[] getBounds(){
+        return bounds.clone();
+    }
+
+    /**@return values counted per bucket, one more than the bounds*/
+    public long[] getCounts(){
+        long[] result = new long[counts.length];
+        for(int i = 0; i < counts.length; i++) result[i] = counts[i].sum();
+        return result;
+    }
+
+    public long getCount(){
+        long count = 0;
+        for(LongAdder adder : counts) count += adder.sum();
+        return count;
+    }
+
+    /**
+     * @param quantile between 0 and 1, e.g. 0.99
+     * @return upper bound of the bucket holding the quantile, Long.MAX_VALUE if above every bound, 0 while empty
+     */
+    public long getQuantile(double quantile){
+        long[] snapshot = getCounts();
+        long total = 0;
+        for(long count : snapshot) total += count;
+        if(total == 0) return 0;
+
+        long target = (long) Math.ceil(quantile * total), seen = 0;
+        for(int i = 0; i < bounds.length; i++){
+            seen += snapshot[i];
+            if(seen >= target && seen > 0) return bounds[i];
+        }
+        return Long.MAX_VALUE;
+    }
+}
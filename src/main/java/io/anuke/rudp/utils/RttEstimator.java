@@ -0,0 +1,56 @@
+package io.anuke.rudp.utils;
+
+/**
+ * Retransmission timeout estimator following RFC 6298, in nanoseconds.
+ * Samples must only come from packets that were sent once (Karn's algorithm): the ack of a resent packet
+ * can't be matched to one of its transmissions. Samples are expected from a single thread.
+ */
+public class RttEstimator{
+    private final long minRto, maxRto, granularity;
+    private volatile long srtt, rttvar, rto;
+    private volatile boolean sampled;
+
+    public RttEstimator(long initialRto, long minRto, long maxRto, long granularity){
+        this.minRto = minRto;
+        this.maxRto = maxRto;
+        this.granularity = granularity;
+        this.rto = initialRto;
+    }
+
+    public void sample(long rtt){
+        if(rtt < 0) return;
+        if(!sampled){
+            srtt = rtt;
+            rttvar = rtt / 2;
+            sampled = true;
+        }else{
+            //beta = 1/4, alpha = 1/8
+            rttvar = (3 * rttvar + Math.abs(srtt - rtt)) / 4;
+            srtt = (7 * srtt + rtt) / 8;
+        }
+        rto = Math.min(Math.max(srtt + Math.max(granularity, 4 * rttvar), minRto), maxRto);
+    }
+
+    /**@return the timeout of a packet already resent the given number of times, doubled for each resend*/
+    public long getRto(int retries){
+        long value = rto;
+        for(int i = 0; i < retries && value < maxRto; i++) value <<= 1;
+        return Math.min(value, maxRto);
+    }
+
+    public long getRto(){
+        return rto;
+    }
+
+    public long getSrtt(){
+        return srtt;
+    }
+
+    public long getRttVar(){
+        return rttvar;
+    }
+
+    public boolean hasSamples(){
+        return sampled;
+    }
+}
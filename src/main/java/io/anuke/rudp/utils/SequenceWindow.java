@@ -0,0 +1,98 @@
+package io.anuke.rudp.utils;
+
+import java.util.Arrays;
+
+/**
+ * Bitmap of the seqs received behind the highest one, used to detect duplicates in constant time.
+ * Seq s is stored at bit s % size, bits are cleared as the window slides forward so wrapped seqs are never confused.
+ * Seqs compare as defined by {@link NetUtils#sequenceGreaterThan(short, short)}. Not thread safe.
+ */
+public final class SequenceWindow{
+    private final long[] words;
+    private final int size;
+    private short highest;
+    private boolean empty = true;
+
+    /**@param size seqs remembered, a power of two between 64 and half the sequence space*/
+    public SequenceWindow(int size){
+        if(size < 64 || size > 32768 || Integer.bitCount(size) != 1){
+            throw new IllegalArgumentException("Window size must be a power of two between 64 and 32768");
+        }
+        this.size = size;
+        this.words = new long[size / 64];
+    }
+
+    /**
+     * Marks a seq as received.
+     *
+     * @return false if it was received before, or is too far behind the highest seq to tell
+     */
+    public boolean add(short seq){
+        if(empty){
+            empty = false;
+            highest = seq;
+            set(seq);
+            return true;
+        }
+        if(NetUtils.sequenceGreaterThan(seq, highest)){
+            int distance = (seq - highest) & 0xFFFF;
+            if(distance >= size){
+                Arrays.fill(words, 0L);
+            }else{
+                for(int i = 1; i < distance; i++) clear((short) (highest + i));
+            }
+            highest = seq;
+            set(seq);
+            return true;
+        }
+        if(((highest - seq) & 0xFFFF) >= size || contains(seq)) return false;
+        set(seq);
+        return true;
+    }
+
+    /**@return whether the seq is within the window and was received*/
+    public boolean contains(short seq){
+        if(empty || NetUtils.sequenceGreaterThan(seq, highest) || ((highest - seq) & 0xFFFF) >= size) return false;
+        int index = seq & (size - 1);
+        return (words[index >>> 6] & (1L << index)) != 0;
+    }
+
+    /**@return highest seq received, meaningless while empty*/
+    public short getHighest(){
+        return highest;
+    }
+
+    public boolean isEmpty(){
+        return empty;
+    }
+
+    /**@return bit n set if seq (highest - n - 1) was received, for the 32 seqs before the highest one*/
+    public int getAckBits(){
+        return getAckBits(highest);
+    }
+
+    /**@return bit n set if seq (seq - n - 1) was received, for the 32 seqs before the given one*/
+    public int getAckBits(short seq){
+        if(empty) return 0;
+        int bits = 0;
+        for(int n = 0; n < 32; n++){
+            if(contains((short) (seq - n - 1))) bits |= 1 << n;
+        }
+        return bits;
+    }
+
+    public void clear(){
+        Arrays.fill(words, 0L);
+        empty = true;
+    }
+
+    private void set(short seq){
+        int index = seq & (size - 1);
+        words[index >>> 6] |= 1L << index;
+    }
+
+    private void clear(short seq){
+        int index = seq & (size - 1);
+        words[index >>> 6] &= ~(1L << index);
+    }
+}
@@ -0,0 +1,58 @@
+package io.anuke.rudp.utils;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Mailbox running its tasks one at a time and in submission order on a shared executor.
+ * Many mailboxes can share one pool: tasks of different mailboxes run in parallel, tasks of one mailbox never do.
+ * Tasks are drained in bounded runs so one busy mailbox doesn't hold a pool thread forever.
+ */
+public final class SerialExecutor implements Executor{
+    private static final int MAX_RUN = 64;
+
+    private final Executor executor;
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final Runnable drain = this::drain;
+
+    public SerialExecutor(Executor executor){
+        this.executor = executor;
+    }
+
+    @Override
+    public void execute(Runnable task){
+        tasks.add(task);
+        schedule();
+    }
+
+    private void schedule(){
+        if(tasks.isEmpty() || !scheduled.compareAndSet(false, true)) return;
+        try{
+            executor.execute(drain);
+        }catch(RejectedExecutionException e){
+            scheduled.set(false);
+            throw e;
+        }
+    }
+
+    private void drain(){
+        try{
+            for(int i = 0; i < MAX_RUN; i++){
+                Runnable task = tasks.poll();
+                if(task == null) break;
+                try{
+                    task.run();
+                }catch(Exception e){
+                    e.printStackTrace();
+                }
+            }
+        }finally{
+            scheduled.set(false);
+            //tasks added during the run, or left over from it
+            schedule();
+        }
+    }
+}
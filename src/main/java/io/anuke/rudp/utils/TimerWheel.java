@@ -0,0 +1,157 @@
+package io.anuke.rudp.utils;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hashed timing wheel driven by a single thread. Tasks are bucketed by deadline, so each tick only touches the tasks
+ * of one bucket no matter how many are scheduled. Deadlines are rounded up to the tick duration.
+ * Tasks are intrusive: a {@link Task} carries its own links and can be rescheduled from its own run().
+ * Buckets are only touched by the wheel thread, schedule() hands tasks over through a queue.
+ */
+public class TimerWheel{
+    private final Task[] buckets;
+    private final int mask;
+    private final long tickNanos;
+    private final ConcurrentLinkedQueue<Task> pending = new ConcurrentLinkedQueue<>();
+    private final Thread worker;
+    private volatile boolean running;
+    private long startTime;
+    private long tick;
+
+    /**
+     * @param tickMillis duration of one tick
+     * @param wheelSize number of buckets, rounded up to a power of two
+     */
+    public TimerWheel(String name, long tickMillis, int wheelSize){
+        int size = Integer.highestOneBit(Math.max(wheelSize, 1) * 2 - 1);
+        buckets = new Task[size];
+        mask = size - 1;
+        tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        worker = new Thread(this::run, name);
+        worker.setDaemon(true);
+    }
+
+    public synchronized void start(){
+        if(running) return;
+        startTime = System.nanoTime();
+        running = true;
+        worker.start();
+    }
+
+    public void stop(){
+        running = false;
+        LockSupport.unpark(worker);
+    }
+
+    public boolean isRunning(){
+        return running;
+    }
+
+    /**
+     * Schedules the task to run after the delay. A task still scheduled, cancelled or not, is moved to the new deadline
+     * and runs once. A task must not be scheduled by two threads at once.
+     */
+    public void schedule(Task task, long delayMillis){
+        schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void schedule(Task task, long delay, TimeUnit unit){
+        task.deadline = System.nanoTime() + unit.toNanos(delay);
+        task.generation++;
+        task.cancelled = false;
+        pending.offer(task);
+    }
+
+    private void run(){
+        while(running){
+            long deadline = startTime + (tick + 1) * tickNanos;
+            long sleep;
+            while((sleep = deadline - System.nanoTime()) > 0 && running){
+                LockSupport.parkNanos(this, sleep);
+            }
+            if(!running) break;
+
+            transferPending();
+            expire(buckets, (int) (tick & mask));
+            tick++;
+        }
+    }
+
+    private void transferPending(){
+        Task task;
+        while((task = pending.poll()) != null){
+            int generation = task.generation;
+            if(task.linked){
+                //queued twice for the same schedule() call, or scheduled again while still in a bucket
+                if(task.linkedGeneration == generation) continue;
+                unlink(task);
+            }
+            if(task.cancelled) continue;
+            long ticks = Math.max((task.deadline - startTime + tickNanos - 1) / tickNanos, tick);
+            task.rounds = (ticks - tick) / buckets.length;
+            int index = (int) (ticks & mask);
+            task.next = buckets[index];
+            buckets[index] = task;
+            task.index = index;
+            task.linked = true;
+            task.linkedGeneration = generation;
+        }
+    }
+
+    private void unlink(Task task){
+        Task current = buckets[task.index], previous = null;
+        while(current != null && current != task){
+            previous = current;
+            current = current.next;
+        }
+        if(current == null) return;
+        if(previous == null) buckets[task.index] = task.next;
+        else previous.next = task.next;
+        task.next = null;
+        task.linked = false;
+    }
+
+    private void expire(Task[] buckets, int index){
+        Task task = buckets[index], previous = null;
+        while(task != null){
+            Task next = task.next;
+            if(task.cancelled || task.rounds <= 0){
+                if(previous == null) buckets[index] = next;
+                else previous.next = next;
+                task.next = null;
+                task.linked = false;
+                //a task scheduled again since it was linked waits in the pending queue for its new deadline
+                if(!task.cancelled && task.linkedGeneration == task.generation){
+                    try{
+                        task.run();
+                    }catch(Exception e){
+                        System.err.println("[TimerWheel] An error occured while running a task:");
+                        e.printStackTrace();
+                    }
+                }
+            }else{
+                task.rounds--;
+                previous = task;
+            }
+            task = next;
+        }
+    }
+
+    public abstract static class Task implements Runnable{
+        private long deadline;
+        private long rounds;
+        private Task next;
+        /**Bucket holding the task and the schedule() call it was linked for, only used by the wheel thread*/
+        private int index, linkedGeneration;
+        private boolean linked;
+        private volatile int generation;
+        private volatile boolean cancelled;
+
+        /**Prevents the task from running. Cancelled tasks are dropped lazily when their bucket is reached.*/
+        public void cancel(){
+            cancelled = true;
+        }
+    }
+}
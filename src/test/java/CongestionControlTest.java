@@ -0,0 +1,139 @@
+import io.anuke.rudp.RUDPConstants;
+import io.anuke.rudp.congestion.CongestionController;
+import io.anuke.rudp.congestion.DelayBasedController;
+import io.anuke.rudp.congestion.NewRenoController;
+import io.anuke.rudp.handlers.PacketHandler;
+import io.anuke.rudp.rudp.RUDPClient;
+import io.anuke.rudp.rudp.RUDPServer;
+import io.anuke.rudp.transport.SimulatedNetwork;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Sends a backlog of reliable messages through a simulated bottleneck: 100 KB/s with 20 ms of latency each way,
+ * dropping datagrams once a second of traffic is queued. Client and server are the real ones, only the controller changes.
+ * Without congestion control, packets lost over and over expire and the ordered channel stalls, so that run is cut short.
+ */
+public class CongestionControlTest {
+
+	static final int BANDWIDTH = 100_000;
+	static final int LATENCY = 20;
+	static final int MESSAGE_SIZE = 500;
+	static final int MESSAGES = 600;
+
+	static class Result {
+		int delivered;
+		double goodput, rtt;
+		long retransmissions;
+
+		@Override
+		public String toString() {
+			return String.format("%d delivered, goodput %.1f%% of link, mean RTT %.1f ms, %d retransmissions", delivered, goodput * 100, rtt, retransmissions);
+		}
+	}
+
+	static Result transfer(int port, Supplier<CongestionController> congestion, long timeoutSeconds) throws IOException, InterruptedException{
+		return transfer(port, congestion, timeoutSeconds, BANDWIDTH, LATENCY, MESSAGE_SIZE, MESSAGES);
+	}
+
+	static Result transfer(int port, Supplier<CongestionController> congestion, long timeoutSeconds,
+						   int bandwidth, int latency, int messageSize, int messages) throws IOException, InterruptedException{
+		SimulatedNetwork network = new SimulatedNetwork(port);
+		network.getConditions().latency(latency).bandwidth(bandwidth);
+		RUDPServer server = new RUDPServer(port, network);
+		AtomicInteger received = new AtomicInteger();
+		server.setPacketHandler(new PacketHandler(){
+			@Override
+			public void onPacketReceived(byte[] data, boolean reliable){
+				received.incrementAndGet();
+			}
+		});
+		server.start();
+
+		RUDPClient client = new RUDPClient(InetAddress.getLoopbackAddress(), port, network);
+		client.setCongestionController(congestion.get());
+		client.connect();
+		//past the MTU probes, so only the messages share the link
+		Thread.sleep(200);
+
+		long start = System.nanoTime();
+		for(int i = 0; i < messages; i++) client.sendReliablePacket(new byte[messageSize]);
+		long rttSum = 0, samples = 0;
+		long end = start + TimeUnit.SECONDS.toNanos(timeoutSeconds);
+		while(received.get() < messages && System.nanoTime() - end < 0){
+			Thread.sleep(10);
+			rttSum += client.getSRTT();
+			samples++;
+		}
+		long elapsed = System.nanoTime() - start;
+
+		Result result = new Result();
+		result.delivered = received.get();
+		//payload bytes only, the headers are not counted as useful
+		result.goodput = (double) result.delivered * messageSize / bandwidth / (elapsed / 1e9);
+		result.rtt = rttSum / (double) Math.max(samples, 1) / 1e6;
+		result.retransmissions = client.getMetrics().getRetransmissions();
+
+		client.disconnect();
+		server.stop();
+		network.close();
+		return result;
+	}
+
+	static class FixedWindow implements CongestionController {
+		@Override
+		public int getWindow() {
+			return RUDPConstants.CONGESTION_MAX_WINDOW;
+		}
+
+		@Override
+		public void onAck(long rtt, long now) {
+		}
+
+		@Override
+		public void onLoss(long now) {
+		}
+	}
+
+	@Test
+	public void testFastBottleneck() throws IOException, InterruptedException{
+		//2500 messages a second fit the link, several times what a pacer draining a few packets per timer tick sends
+		int messages = 2000;
+		Result newReno = transfer(7013, NewRenoController::new, 10, 500_000, 5, 200, messages);
+		Result delayBased = transfer(7014, DelayBasedController::new, 10, 500_000, 5, 200, messages);
+		String results = "NewReno: " + newReno + "; delay based: " + delayBased;
+
+		assertEquals(messages, newReno.delivered, results);
+		assertEquals(messages, delayBased.delivered, results);
+		//capped at 800 messages a second, both would stay below a third of the link
+		assertTrue(newReno.goodput > 0.4, results);
+		assertTrue(delayBased.goodput > 0.6, results);
+	}
+
+	@Test
+	public void testBottleneck() throws IOException, InterruptedException{
+		Result uncontrolled = transfer(7010, FixedWindow::new, 6);
+		Result newReno = transfer(7011, NewRenoController::new, 15);
+		Result delayBased = transfer(7012, DelayBasedController::new, 15);
+		String results = "no congestion control: " + uncontrolled + "; NewReno: " + newReno + "; delay based: " + delayBased;
+
+		assertEquals(MESSAGES, newReno.delivered, results);
+		assertEquals(MESSAGES, delayBased.delivered, results);
+		//slow start overshooting the queue costs NewReno a burst of losses, the delay based controller stops short of it
+		assertTrue(newReno.goodput > 0.4, results);
+		assertTrue(delayBased.goodput > 0.7, results);
+		assertTrue(newReno.retransmissions < uncontrolled.retransmissions / 4, results);
+		assertTrue(delayBased.retransmissions <= newReno.retransmissions, results);
+		assertTrue(delayBased.rtt < newReno.rtt, results);
+		//propagation, delayed acks and the queueing the controller aims for, with the same again as margin
+		assertTrue(delayBased.rtt < LATENCY * 2 + RUDPConstants.ACK_DELAY_MILLISECONDS + RUDPConstants.CONGESTION_DELAY_TARGET_MILLISECONDS * 2, results);
+	}
+}
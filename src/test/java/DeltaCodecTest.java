@@ -0,0 +1,70 @@
+
+import io.anuke.rudp.utils.DeltaCodec;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DeltaCodecTest {
+
+	static byte[] roundTrip(byte[] baseline, byte[] data){
+		byte[] encoded = new byte[DeltaCodec.maxEncodedLength(data.length)];
+		int length = DeltaCodec.encode(baseline, baseline == null ? 0 : baseline.length, data, 0, data.length, encoded, 0);
+		assertTrue(length <= encoded.length);
+
+		ByteBuffer in = ByteBuffer.wrap(encoded, 0, length);
+		int decodedLength = DeltaCodec.decodeLength(in);
+		assertEquals(data.length, decodedLength);
+		//garbage left over in the output must not leak into the result
+		byte[] out = new byte[decodedLength + 10];
+		Arrays.fill(out, (byte) 7);
+		assertTrue(DeltaCodec.decode(baseline, baseline == null ? 0 : baseline.length, in, out, decodedLength));
+		assertArrayEquals(data, Arrays.copyOf(out, decodedLength));
+		return Arrays.copyOf(encoded, length);
+	}
+
+	@Test
+	public void testRoundTrips(){
+		Random random = new Random(5);
+		byte[] baseline = new byte[1000];
+		random.nextBytes(baseline);
+
+		//unchanged, a few scattered changes, longer and shorter than the baseline, no baseline at all
+		assertEquals(2, roundTrip(baseline, baseline.clone()).length);
+		byte[] changed = baseline.clone();
+		for(int i = 0; i < 20; i++) changed[random.nextInt(changed.length)]++;
+		assertTrue(roundTrip(baseline, changed).length < 100);
+		byte[] longer = Arrays.copyOf(baseline, 1200);
+		longer[1100] = 1;
+		assertTrue(roundTrip(baseline, longer).length < 10);
+		roundTrip(baseline, Arrays.copyOf(baseline, 10));
+		roundTrip(null, changed);
+		roundTrip(baseline, new byte[0]);
+
+		//worst cases stay within the bound
+		byte[] alternating = new byte[4000];
+		for(int i = 0; i < alternating.length; i++) alternating[i] = (byte) (i % 9 == 0 ? 1 : 0);
+		roundTrip(null, alternating);
+		byte[] noise = new byte[4000];
+		random.nextBytes(noise);
+		roundTrip(baseline, noise);
+	}
+
+	@Test
+	public void testMalformed(){
+		byte[] out = new byte[100];
+		ByteBuffer truncated = ByteBuffer.wrap(new byte[]{10, 2, 5, 1});
+		assertEquals(10, DeltaCodec.decodeLength(truncated));
+		assertFalse(DeltaCodec.decode(null, 0, truncated, out, 10));
+
+		ByteBuffer overrun = ByteBuffer.wrap(new byte[]{10, 9, 3, 1, 1, 1});
+		assertEquals(10, DeltaCodec.decodeLength(overrun));
+		assertFalse(DeltaCodec.decode(null, 0, overrun, out, 10));
+
+		assertEquals(-1, DeltaCodec.decodeLength(ByteBuffer.wrap(new byte[]{(byte) 0x80})));
+	}
+}
@@ -0,0 +1,29 @@
+
+import io.anuke.rudp.utils.Histogram;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HistogramTest {
+
+	@Test
+	public void testBuckets(){
+		Histogram histogram = new Histogram(10, 100, 1000);
+		assertEquals(0, histogram.getQuantile(0.5));
+
+		//bounds are inclusive, the last bucket takes everything above
+		histogram.record(0);
+		histogram.record(10);
+		histogram.record(11);
+		histogram.record(1000);
+		histogram.record(5000);
+		assertArrayEquals(new long[]{2, 1, 1, 1}, histogram.getCounts());
+		assertEquals(5, histogram.getCount());
+
+		assertEquals(10, histogram.getQuantile(0.4));
+		assertEquals(100, histogram.getQuantile(0.5));
+		assertEquals(1000, histogram.getQuantile(0.8));
+		assertEquals(Long.MAX_VALUE, histogram.getQuantile(0.99));
+	}
+}
@@ -1,15 +1,30 @@
 
+import io.anuke.rudp.RUDPConstants;
 import io.anuke.rudp.handlers.OrderedPacketHandler;
 import io.anuke.rudp.handlers.PacketHandler;
 import io.anuke.rudp.rudp.RUDPClient;
 import io.anuke.rudp.rudp.RUDPServer;
+import io.anuke.rudp.rudp.RudpPacket;
+import io.anuke.rudp.transport.ChannelTransport;
+import io.anuke.rudp.transport.TransportFactory;
+import io.anuke.rudp.utils.BufferPool;
 import io.anuke.rudp.utils.NetUtils;
 
 import java.io.IOException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.jupiter.api.Test;
 
+import static org.junit.jupiter.api.Assertions.*;
+
 public class LocalServClientTest {
 	
 	public static class ServerPHandler implements PacketHandler{
@@ -54,4 +69,92 @@ public class LocalServClientTest {
 		client.disconnect();
 		server.stop();
 	}
+
+	/**Pool counting buffers handed out and returned.*/
+	static class CountingPool extends BufferPool {
+		final AtomicInteger acquired = new AtomicInteger(), released = new AtomicInteger();
+
+		CountingPool(){
+			super(RUDPConstants.RECEIVE_MAX_SIZE, RUDPConstants.BUFFER_POOL_SIZE);
+		}
+
+		@Override
+		public ByteBuffer acquire(){
+			acquired.incrementAndGet();
+			return super.acquire();
+		}
+
+		@Override
+		public void release(ByteBuffer buffer){
+			released.incrementAndGet();
+			super.release(buffer);
+		}
+	}
+
+	/**Records payloads received, without the handler header.*/
+	static class RecordingHandler implements PacketHandler {
+		final List<byte[]> reliable = new ArrayList<>(), unreliable = new ArrayList<>();
+
+		@Override
+		public void onPacketReceived(byte[] data, boolean isReliable){
+			List<byte[]> list = isReliable ? reliable : unreliable;
+			synchronized(list){
+				list.add(Arrays.copyOfRange(data, RudpPacket.HEADER_SIZE, data.length));
+			}
+		}
+	}
+
+	@Test
+	public void testChannelTransport() throws IOException, InterruptedException{
+		CountingPool pool = new CountingPool();
+		TransportFactory factory = (port, reusePort) -> new ChannelTransport(DatagramChannel.open().bind(new InetSocketAddress(port)), pool);
+
+		RUDPServer server = new RUDPServer(1112, factory);
+		RecordingHandler serverHandler = new RecordingHandler();
+		server.setPacketHandler(serverHandler);
+		server.start();
+
+		RUDPClient client = new RUDPClient(InetAddress.getByName("localhost"), 1112, factory);
+		RecordingHandler clientHandler = new RecordingHandler();
+		client.setPacketHandler(clientHandler);
+		client.connect();
+		ReliabilityTest.await(1000, () -> !server.getConnectedClients().isEmpty());
+		RUDPClient child = server.getConnectedClients().get(0);
+
+		Random random = new Random(1);
+		byte[] reliable = new byte[1000], unreliable = new byte[200];
+		random.nextBytes(reliable);
+		random.nextBytes(unreliable);
+		for(int i = 0; i < 10; i++){
+			client.sendReliablePacket(reliable);
+			client.sendPacket(unreliable);
+			child.sendReliablePacket(reliable);
+			child.sendPacket(unreliable);
+		}
+
+		ReliabilityTest.await(2000, () -> serverHandler.reliable.size() == 10 && clientHandler.reliable.size() == 10
+			&& serverHandler.unreliable.size() == 10 && clientHandler.unreliable.size() == 10);
+		for(RecordingHandler handler : new RecordingHandler[]{serverHandler, clientHandler}){
+			synchronized(handler.reliable){
+				assertEquals(10, handler.reliable.size());
+				for(byte[] payload : handler.reliable) assertArrayEquals(reliable, payload);
+			}
+			synchronized(handler.unreliable){
+				assertEquals(10, handler.unreliable.size());
+				for(byte[] payload : handler.unreliable) assertArrayEquals(unreliable, payload);
+			}
+		}
+
+		//every buffer borrowed to send came back, only the receive buffer of each socket stays out
+		ReliabilityTest.await(1000, () -> pool.acquired.get() - pool.released.get() == 2);
+		assertEquals(2, pool.acquired.get() - pool.released.get());
+		assertTrue(pool.released.get() >= 40);
+		assertTrue(pool.size() > 0);
+
+		client.disconnect();
+		client.connect();
+
+		client.disconnect();
+		server.stop();
+	}
 }
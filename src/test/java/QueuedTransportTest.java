@@ -0,0 +1,97 @@
+
+import io.anuke.rudp.transport.QueuedTransport;
+import io.anuke.rudp.transport.Transport;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class QueuedTransportTest {
+
+	/**Records what the writer sends, blocking on the first datagram until released.*/
+	static class BlockingTransport implements Transport {
+		final CountDownLatch entered = new CountDownLatch(1), release = new CountDownLatch(1);
+		final List<Byte> sent = new ArrayList<>();
+		volatile boolean closed;
+
+		@Override
+		public void send(byte[] data, int offset, int length, InetSocketAddress endpoint) {
+			send(ByteBuffer.wrap(data, offset, length), endpoint);
+		}
+
+		@Override
+		public void send(ByteBuffer data, InetSocketAddress endpoint) {
+			entered.countDown();
+			try {
+				release.await();
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			synchronized(sent) {
+				sent.add(data.get(data.position()));
+			}
+		}
+
+		@Override
+		public void receive(PacketReceiver receiver) {}
+
+		@Override
+		public void setTimeout(int timeout) {}
+
+		@Override
+		public int getLocalPort() {
+			return 0;
+		}
+
+		@Override
+		public boolean isClosed() {
+			return closed;
+		}
+
+		@Override
+		public void close() {
+			closed = true;
+		}
+
+		int sentCount() {
+			synchronized(sent) {
+				return sent.size();
+			}
+		}
+	}
+
+	@Test
+	public void testOverflowAndOrder() throws InterruptedException {
+		BlockingTransport inner = new BlockingTransport();
+		QueuedTransport transport = new QueuedTransport(inner, 4);
+		InetSocketAddress endpoint = new InetSocketAddress("localhost", 1);
+
+		transport.send(new byte[]{0}, 0, 1, endpoint);
+		assertTrue(inner.entered.await(2, TimeUnit.SECONDS));
+
+		//the writer is stuck on datagram 0, 4 more fit in the queue
+		for(int i = 1; i < 10; i++) transport.send(ByteBuffer.wrap(new byte[]{(byte) i}), endpoint);
+		assertEquals(4, transport.getQueueDepth());
+		assertEquals(5, transport.getDropped());
+
+		inner.release.countDown();
+		long end = System.currentTimeMillis() + 2000;
+		while(inner.sentCount() < 5 && System.currentTimeMillis() < end) Thread.sleep(5);
+
+		assertEquals(0, transport.getQueueDepth());
+		synchronized(inner.sent) {
+			assertEquals(5, inner.sent.size());
+			for(int i = 0; i < 5; i++) assertEquals(i, (int) inner.sent.get(i));
+		}
+
+		transport.close();
+		assertTrue(inner.isClosed());
+	}
+}
@@ -0,0 +1,824 @@
+
+import io.anuke.rudp.RUDPConstants;
+import io.anuke.rudp.handlers.OrderedPacketHandler;
+import io.anuke.rudp.handlers.PacketHandler;
+import io.anuke.rudp.rudp.ClientGroup;
+import io.anuke.rudp.rudp.DeliveryMode;
+import io.anuke.rudp.rudp.Metrics;
+import io.anuke.rudp.rudp.RUDPClient;
+import io.anuke.rudp.rudp.RUDPServer;
+import io.anuke.rudp.rudp.RudpPacket;
+import io.anuke.rudp.transport.SimulatedNetwork;
+import io.anuke.rudp.transport.Transport;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReliabilityTest {
+
+	static class CountingHandler implements PacketHandler {
+		final AtomicInteger reliable = new AtomicInteger(), unreliable = new AtomicInteger();
+
+		@Override
+		public void onPacketReceived(byte[] data, boolean isReliable) {
+			(isReliable ? reliable : unreliable).incrementAndGet();
+		}
+	}
+
+	/**Drops a seeded fraction of the datagrams of one packet type sent through a transport.*/
+	static class LossyTypeTransport extends SimulatedNetworkTest.DroppingTransport {
+		final Random random;
+		final double loss;
+
+		LossyTypeTransport(Transport transport, byte type, double loss, long seed){
+			super(transport, type, 0);
+			this.random = new Random(seed);
+			this.loss = loss;
+		}
+
+		@Override
+		public void send(byte[] data, int offset, int length, InetSocketAddress endpoint) throws IOException{
+			send(ByteBuffer.wrap(data, offset, length), endpoint);
+		}
+
+		@Override
+		public synchronized void send(ByteBuffer data, InetSocketAddress endpoint) throws IOException{
+			if(data.hasRemaining() && data.get(data.position()) == type && random.nextDouble() < loss) return;
+			transport.send(data, endpoint);
+		}
+	}
+
+	/**Holds back the reliable packet with one seq until the one with another seq has been sent.*/
+	static class HoldingTransport extends SimulatedNetworkTest.DroppingTransport {
+		final short held, release;
+		byte[] datagram;
+
+		HoldingTransport(Transport transport, int held, int release){
+			super(transport, RUDPConstants.PacketType.RELIABLE, 0);
+			this.held = (short) held;
+			this.release = (short) release;
+		}
+
+		@Override
+		public void send(byte[] data, int offset, int length, InetSocketAddress endpoint) throws IOException{
+			send(ByteBuffer.wrap(data, offset, length), endpoint);
+		}
+
+		@Override
+		public synchronized void send(ByteBuffer data, InetSocketAddress endpoint) throws IOException{
+			int start = data.position();
+			boolean reliable = data.remaining() >= RUDPConstants.PACKET_HEADER_SIZE && data.get(start) == type;
+			short seq = reliable ? data.getShort(start + 1) : -1;
+			if(reliable && seq == held && datagram == null){
+				datagram = new byte[data.remaining()];
+				data.get(datagram);
+				return;
+			}
+			transport.send(data, endpoint);
+			if(reliable && seq == release && datagram != null) transport.send(ByteBuffer.wrap(datagram), endpoint);
+		}
+	}
+
+	static void await(long timeoutMillis, BooleanSupplier condition) throws InterruptedException{
+		long end = System.currentTimeMillis() + timeoutMillis;
+		while(!condition.getAsBoolean() && System.currentTimeMillis() < end) Thread.sleep(5);
+	}
+
+	@Test
+	public void testPiggybackedAcks() throws IOException, InterruptedException{
+		RUDPServer server = new RUDPServer(1113);
+		CountingHandler serverHandler = new CountingHandler();
+		server.setPacketHandler(serverHandler);
+		server.start();
+
+		RUDPClient client = new RUDPClient(InetAddress.getByName("localhost"), 1113);
+		CountingHandler clientHandler = new CountingHandler();
+		client.setPacketHandler(clientHandler);
+		client.connect();
+		await(1000, () -> !server.getConnectedClients().isEmpty());
+		RUDPClient child = server.getConnectedClients().get(0);
+
+		for(int i = 0; i < 100; i++){
+			child.sendReliablePacket(new byte[]{(byte) i});
+			client.sendReliablePacket(new byte[]{(byte) i});
+		}
+
+		await(2000, () -> clientHandler.reliable.get() == 100 && serverHandler.reliable.get() == 100
+			&& child.getPacketsInFlight() == 0 && client.getPacketsInFlight() == 0);
+		assertEquals(100, clientHandler.reliable.get());
+		assertEquals(100, serverHandler.reliable.get());
+		assertEquals(0, child.getPacketsInFlight());
+		assertEquals(0, client.getPacketsInFlight());
+		assertTrue(child.getSRTT() > 0 && child.getRTO() >= child.getSRTT());
+
+		//acks ride on the reverse traffic or a few delayed standalone acks, not one RELY per packet
+		assertTrue(child.getSent() < 50, "standalone acks sent: " + child.getSent());
+
+		client.disconnect();
+		server.stop();
+	}
+
+	@Test
+	public void testLostAcks() throws IOException, InterruptedException{
+		SimulatedNetwork network = new SimulatedNetwork(17);
+		//the forward path is perfect, only the standalone acks of the server get lost
+		RUDPServer server = new RUDPServer(1126, (port, reusePort) -> new LossyTypeTransport(network.open(port, reusePort), RUDPConstants.PacketType.RELY, 0.1, 17));
+		CountingHandler handler = new CountingHandler();
+		server.setPacketHandler(handler);
+		server.start();
+
+		RUDPClient client = new RUDPClient(InetAddress.getLoopbackAddress(), 1126, network);
+		client.connect();
+		for(int i = 0; i < 2000; i++) client.sendReliablePacket(new byte[]{(byte) i});
+
+		await(10_000, () -> handler.reliable.get() == 2000 && client.getPacketsInFlight() == 0);
+		assertEquals(2000, handler.reliable.get());
+		assertEquals(0, client.getPacketsInFlight());
+		//duplicates of packets acked long ago are acked again, nothing is resent until it expires
+		assertEquals(0, client.getMetrics().getExpired());
+
+		client.disconnect();
+		server.stop();
+		network.close();
+	}
+
+	@Test
+	public void testBindFailure(){
+		IOException failure = new IOException("Address already in use");
+		SocketException exception = assertThrows(SocketException.class, () -> new RUDPServer(1128, (port, reusePort) -> {
+			throw failure;
+		}));
+		//kept to tell why a shard could not be opened
+		assertSame(failure, exception.getCause());
+	}
+
+	@Test
+	public void testFragmentation() throws IOException, InterruptedException{
+		RUDPServer server = new RUDPServer(1114);
+		List<byte[]> messages = new ArrayList<>();
+		server.setPacketHandler(new OrderedPacketHandler(){
+			@Override
+			public void handlePacket(byte[] data){
+				synchronized(messages){
+					messages.add(data);
+				}
+			}
+		});
+		server.start();
+
+		RUDPClient client = new RUDPClient(InetAddress.getByName("localhost"), 1114);
+		client.connect();
+		await(1000, () -> client.getMTU() == 1472);
+		assertEquals(1472, client.getMTU());
+
+		byte[] large = new byte[100_000];
+		new Random(7).nextBytes(large);
+		client.sendReliablePacket(new byte[]{1});
+		client.sendReliablePacket(large);
+		client.sendReliablePacket(new byte[]{2});
+
+		await(3000, () -> messages.size() == 3);
+		assertEquals(3, messages.size());
+		assertArrayEquals(new byte[]{1}, messages.get(0));
+		assertArrayEquals(large, messages.get(1));
+		assertArrayEquals(new byte[]{2}, messages.get(2));
+		assertTrue(client.getSentReliable() > large.length / client.getMTU());
+
+		boolean thrown = false;
+		try{
+			client.sendPacket(new byte[RUDPConstants.RECEIVE_MAX_SIZE]);
+		}catch(IllegalArgumentException e){
+			thrown = true;
+		}
+		assertTrue(thrown, "oversized unreliable packet accepted");
+
+		client.disconnect();
+		server.stop();
+	}
+
+	@Test
+	public void testBatching() throws IOException, InterruptedException{
+		RUDPServer server = new RUDPServer(1115);
+		CountingHandler serverHandler = new CountingHandler();
+		server.setPacketHandler(serverHandler);
+		server.start();
+
+		RUDPClient client = new RUDPClient(InetAddress.getByName("localhost"), 1115);
+		client.connect();
+		client.setBatching(true);
+		client.setFlushDelay(0);
+
+		for(int i = 0; i < 50; i++){
+			client.sendPacket(new byte[20]);
+			client.sendReliablePacket(new byte[20]);
+		}
+		//full batches leave on their own, the last one waits for flush()
+		Thread.sleep(100);
+		assertTrue(serverHandler.reliable.get() + serverHandler.unreliable.get() < 100, "batch sent before flush");
+
+		client.flush();
+		await(2000, () -> serverHandler.reliable.get() == 50 && serverHandler.unreliable.get() == 50 && client.getPacketsInFlight() == 0);
+		assertEquals(50, serverHandler.reliable.get());
+		assertEquals(50, serverHandler.unreliable.get());
+		assertEquals(0, client.getPacketsInFlight());
+
+		//without flush(), the retransmission timer sends the batch a reliable packet waits in, not the packet alone
+		client.sendPacket(new byte[20]);
+		client.sendReliablePacket(new byte[20]);
+		await(2000, () -> serverHandler.reliable.get() == 51 && serverHandler.unreliable.get() == 51);
+		assertEquals(51, serverHandler.reliable.get());
+		assertEquals(51, serverHandler.unreliable.get());
+
+		client.disconnect();
+		server.stop();
+	}
+
+	@Test
+	public void testLateFreshPacket() throws IOException, InterruptedException{
+		SimulatedNetwork network = new SimulatedNetwork(19);
+		RUDPServer server = new RUDPServer(1130, network);
+		CountingHandler handler = new CountingHandler();
+		server.setPacketHandler(handler);
+		server.start();
+
+		//arrives for the first time 40 seqs behind the highest, past the bitfield of every later header
+		RUDPClient client = new RUDPClient(InetAddress.getLoopbackAddress(), 1130,
+			(port, reusePort) -> new HoldingTransport(network.open(port, reusePort), 5, 45));
+		client.setCongestionController(new CongestionControlTest.FixedWindow());
+		client.connect();
+		for(int i = 0; i < 50; i++) client.sendReliablePacket(new byte[]{(byte) i});
+
+		await(2000, () -> handler.reliable.get() == 50 && client.getPacketsInFlight() == 0);
+		assertEquals(50, handler.reliable.get());
+		assertEquals(0, client.getPacketsInFlight());
+		//acked on its own when it arrived, not resent after a timeout
+		assertEquals(0, client.getMetrics().getRetransmissions());
+
+		client.disconnect();
+		server.stop();
+		network.close();
+	}
+
+	@Test
+	public void testBatchedRtt() throws IOException, InterruptedException{
+		RUDPServer server = new RUDPServer(1127);
+		CountingHandler handler = new CountingHandler();
+		server.setPacketHandler(handler);
+		server.start();
+
+		RUDPClient client = new RUDPClient(InetAddress.getByName("localhost"), 1127);
+		client.connect();
+		client.setBatching(true);
+		client.setFlushDelay(0);
+
+		//never flushed by hand, the timer of the first packet sends the batch once the RTO passed.
+		//The timers of the others and the round trips count from then, nothing is resent
+		for(int i = 0; i < 10; i++) client.sendReliablePacket(new byte[20]);
+		await(2000, () -> handler.reliable.get() == 10 && client.getPacketsInFlight() == 0);
+		assertEquals(10, handler.reliable.get());
+		assertEquals(0, client.getMetrics().getRetransmissions());
+		assertTrue(client.getSRTT() < TimeUnit.MILLISECONDS.toNanos(100), "SRTT: " + client.getSRTT());
+
+		client.disconnect();
+		server.stop();
+	}
+
+	@Test
+	public void testChannels() throws IOException, InterruptedException{
+		DeliveryMode[] modes = {DeliveryMode.RELIABLE_UNORDERED, DeliveryMode.RELIABLE_ORDERED, DeliveryMode.UNRELIABLE_SEQUENCED};
+		RUDPServer server = new RUDPServer(1116);
+		server.setChannels(modes);
+		List<List<RudpPacket>> received = new ArrayList<>();
+		for(int i = 0; i < modes.length; i++) received.add(new ArrayList<>());
+		AtomicInteger legacy = new AtomicInteger();
+		server.setPacketHandler(new PacketHandler(){
+			@Override
+			public void onPacketReceived(int channel, byte[] data, boolean reliable){
+				synchronized(received){
+					received.get(channel).add(new RudpPacket(data));
+				}
+				PacketHandler.super.onPacketReceived(channel, data, reliable);
+			}
+
+			@Override
+			public void onPacketReceived(byte[] data, boolean reliable){
+				legacy.incrementAndGet();
+			}
+		});
+		server.start();
+
+		RUDPClient client = new RUDPClient(InetAddress.getByName("localhost"), 1116);
+		client.setChannels(modes);
+		client.connect();
+
+		for(int i = 0; i < 100; i++){
+			client.sendReliablePacket(new byte[]{0});
+			client.send(1, new byte[]{(byte) i});
+			client.send(2, new byte[]{(byte) i});
+		}
+
+		await(2000, () -> received.get(0).size() == 100 && received.get(1).size() == 100);
+		synchronized(received){
+			assertEquals(100, received.get(0).size());
+			assertEquals(100, legacy.get());
+			assertEquals(100, received.get(1).size());
+			for(int i = 0; i < 100; i++){
+				assertEquals(i, received.get(1).get(i).sequenceNum);
+				assertEquals((byte) i, received.get(1).get(i).rawPayload[0]);
+			}
+			//each channel has its own sequence space, stale unreliable messages are never delivered
+			List<RudpPacket> sequenced = received.get(2);
+			assertTrue(sequenced.size() > 0 && sequenced.size() <= 100);
+			for(int i = 1; i < sequenced.size(); i++){
+				assertTrue(sequenced.get(i).sequenceNum > sequenced.get(i - 1).sequenceNum);
+			}
+		}
+
+		boolean thrown = false;
+		try{
+			client.send(3, new byte[1]);
+		}catch(IllegalArgumentException e){
+			thrown = true;
+		}
+		assertTrue(thrown, "message sent on an unknown channel");
+
+		client.disconnect();
+		server.stop();
+	}
+
+	@Test
+	public void testSharedOrderedHandler() throws IOException, InterruptedException{
+		RUDPServer server = new RUDPServer(1117);
+		List<Byte> messages = new ArrayList<>();
+		//one handler for every connection, each connection orders its own messages
+		server.setPacketHandler(new OrderedPacketHandler(){
+			@Override
+			public void handlePacket(byte[] data){
+				synchronized(messages){
+					messages.add(data[0]);
+				}
+			}
+		});
+		server.start();
+
+		RUDPClient first = new RUDPClient(InetAddress.getByName("localhost"), 1117);
+		RUDPClient second = new RUDPClient(InetAddress.getByName("localhost"), 1117);
+		first.connect();
+		second.connect();
+		for(int i = 0; i < 100; i++){
+			first.sendReliablePacket(new byte[]{1});
+			second.sendReliablePacket(new byte[]{2});
+		}
+
+		await(2000, () -> messages.size() == 200);
+		synchronized(messages){
+			assertEquals(200, messages.size());
+		}
+
+		first.disconnect();
+		second.disconnect();
+		server.stop();
+	}
+
+	@Test
+	public void testBufferViews() throws IOException, InterruptedException{
+		RUDPServer server = new RUDPServer(1118);
+		List<byte[]> payloads = new ArrayList<>();
+		server.setPacketHandler(new PacketHandler(){
+			@Override
+			public void onPacketReceived(int channel, ByteBuffer data, boolean reliable){
+				assertTrue(data.isReadOnly());
+				assertEquals(RudpPacket.HEADER_SIZE, data.position());
+				byte[] payload = new byte[data.remaining()];
+				data.get(payload);
+				synchronized(payloads){
+					payloads.add(payload);
+				}
+			}
+		});
+		server.start();
+
+		RUDPClient client = new RUDPClient(InetAddress.getByName("localhost"), 1118);
+		client.connect();
+
+		client.sendReliablePacket(new byte[]{0, 0, 1, 2, 3, 0}, 2, 3);
+		ByteBuffer buffer = ByteBuffer.allocateDirect(16);
+		buffer.put(new byte[]{4, 5}).flip();
+		client.sendReliablePacket(buffer);
+		assertEquals(0, buffer.remaining());
+
+		await(2000, () -> payloads.size() == 2);
+		synchronized(payloads){
+			assertEquals(2, payloads.size());
+			assertArrayEquals(new byte[]{1, 2, 3}, payloads.get(0));
+			assertArrayEquals(new byte[]{4, 5}, payloads.get(1));
+		}
+
+		client.disconnect();
+		server.stop();
+	}
+
+	@Test
+	public void testHandlerExecutor() throws IOException, InterruptedException{
+		RUDPServer server = new RUDPServer(1119);
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		server.setHandlerExecutor(pool);
+		List<List<Integer>> received = new ArrayList<>();
+		for(int i = 0; i < 2; i++) received.add(new ArrayList<>());
+		AtomicInteger onReceiveThread = new AtomicInteger();
+		server.setPacketHandler(new PacketHandler(){
+			@Override
+			public void onPacketReceived(byte[] data, boolean reliable){
+				if(Thread.currentThread().getName().startsWith("RUDPServer")) onReceiveThread.incrementAndGet();
+				List<Integer> list = received.get(data[RudpPacket.HEADER_SIZE]);
+				synchronized(list){
+					list.add(data[RudpPacket.HEADER_SIZE + 1] & 0xFF);
+				}
+				try{
+					Thread.sleep(1);
+				}catch(InterruptedException e){
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		server.start();
+
+		RUDPClient[] clients = new RUDPClient[2];
+		for(int i = 0; i < clients.length; i++){
+			clients[i] = new RUDPClient(InetAddress.getByName("localhost"), 1119);
+			clients[i].connect();
+		}
+		for(int n = 0; n < 100; n++){
+			for(int i = 0; i < clients.length; i++){
+				clients[i].sendReliablePacket(new byte[]{(byte) i, (byte) n});
+			}
+		}
+
+		await(5000, () -> received.stream().allMatch(list -> {
+			synchronized(list){
+				return list.size() == 100;
+			}
+		}));
+		assertEquals(0, onReceiveThread.get());
+		for(List<Integer> list : received){
+			synchronized(list){
+				assertEquals(100, list.size());
+				for(int n = 0; n < 100; n++) assertEquals(n, (int) list.get(n));
+			}
+		}
+
+		for(RUDPClient client : clients) client.disconnect();
+		server.stop();
+		pool.shutdown();
+	}
+
+	@Test
+	public void testMetrics() throws Exception{
+		RUDPServer server = new RUDPServer(1120);
+		CountingHandler handler = new CountingHandler();
+		server.setPacketHandler(handler);
+		server.start();
+
+		RUDPClient client = new RUDPClient(InetAddress.getByName("localhost"), 1120);
+		client.connect();
+		for(int i = 0; i < 20; i++) client.sendReliablePacket(new byte[100]);
+
+		await(2000, () -> handler.reliable.get() == 20 && client.getPacketsInFlight() == 0);
+		//keep-alives may come, read the connection first so the server total can only be ahead
+		long connectionPackets = server.getConnectedClients().get(0).getMetrics().getPacketsReceived();
+		Metrics metrics = server.getMetrics();
+		assertTrue(connectionPackets >= 20);
+		assertTrue(metrics.getPacketsReceived() >= connectionPackets);
+		assertTrue(metrics.getBytesReceived() >= 20 * 100);
+		assertEquals(0, metrics.getDuplicates());
+		assertTrue(client.getMetrics().getPacketsSent() >= 20);
+		assertTrue(client.getMetrics().getRtt().getCount() > 0);
+
+		MBeanServer beans = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName("io.anuke.rudp:type=RUDPServer,port=1120");
+		assertEquals(1, beans.getAttribute(name, "ConnectionCount"));
+		assertTrue((long) beans.getAttribute(name, "BytesReceived") >= 20 * 100);
+
+		client.disconnect();
+		server.stop();
+		assertFalse(beans.isRegistered(name));
+	}
+
+	@Test
+	public void testClientGroup() throws IOException, InterruptedException{
+		RUDPServer server = new RUDPServer(1121);
+		CountingHandler handler = new CountingHandler();
+		server.setPacketHandler(handler);
+		server.start();
+
+		int threads = Thread.activeCount();
+		ClientGroup group = new ClientGroup();
+		RUDPClient[] clients = new RUDPClient[50];
+		for(int i = 0; i < clients.length; i++){
+			clients[i] = new RUDPClient(InetAddress.getByName("localhost"), 1121, group);
+			clients[i].connect();
+		}
+		//only the group thread, and the client timer shared by every client if no earlier test started it
+		assertTrue(Thread.activeCount() - threads <= 2, "threads started: " + (Thread.activeCount() - threads));
+
+		for(RUDPClient client : clients) client.sendReliablePacket(new byte[]{1, 2, 3});
+		await(2000, () -> handler.reliable.get() == clients.length);
+		assertEquals(clients.length, handler.reliable.get());
+		assertEquals(clients.length, server.getConnectedClients().size());
+
+		await(2000, () -> group.getMetrics().getRtt().getCount() >= clients.length);
+		assertTrue(group.getMetrics().getPacketsSent() >= clients.length);
+
+		for(RUDPClient client : clients) client.disconnect();
+		await(2000, () -> server.getConnectedClients().isEmpty());
+		assertTrue(server.getConnectedClients().isEmpty());
+		group.close();
+		server.stop();
+	}
+
+	@Test
+	public void testCompression() throws IOException, InterruptedException{
+		byte[] dictionary = "{\"type\":\"move\",\"player\":,\"x\":,\"y\":,\"angle\":}".getBytes(StandardCharsets.UTF_8);
+		RUDPServer server = new RUDPServer(1122);
+		List<byte[]> messages = new ArrayList<>();
+		server.setPacketHandler(new OrderedPacketHandler(){
+			@Override
+			public void handlePacket(byte[] data){
+				synchronized(messages){
+					messages.add(data);
+				}
+			}
+		});
+		server.setCompression(true, dictionary);
+		server.start();
+
+		RUDPClient client = new RUDPClient(InetAddress.getByName("localhost"), 1122);
+		client.setCompression(true, dictionary);
+		client.connect();
+		assertTrue(client.isCompressing());
+		await(1000, () -> !server.getConnectedClients().isEmpty());
+		assertTrue(server.getConnectedClients().get(0).isCompressing());
+
+		List<byte[]> sent = new ArrayList<>();
+		long bytes = 0;
+		for(int i = 0; i < 100; i++){
+			sent.add(("{\"type\":\"move\",\"player\":" + i + ",\"x\":" + i * 3 + ",\"y\":" + i * 7 + ",\"angle\":90}").getBytes(StandardCharsets.UTF_8));
+		}
+		//too small to be worth it, random bytes that don't compress, and a large message compressed before being fragmented
+		sent.add(new byte[]{1, 2, 3});
+		byte[] random = new byte[2000];
+		new Random(3).nextBytes(random);
+		sent.add(random);
+		StringBuilder large = new StringBuilder();
+		for(int i = 0; i < 5000; i++) large.append("entity ").append(i % 50).append(' ');
+		sent.add(large.toString().getBytes(StandardCharsets.UTF_8));
+
+		long before = client.getMetrics().getBytesSent();
+		for(byte[] message : sent){
+			client.sendReliablePacket(message);
+			bytes += message.length;
+		}
+
+		await(3000, () -> messages.size() == sent.size());
+		assertEquals(sent.size(), messages.size());
+		for(int i = 0; i < sent.size(); i++) assertArrayEquals(sent.get(i), messages.get(i));
+		long compressed = client.getMetrics().getBytesSent() - before;
+		assertTrue(compressed < bytes / 2, compressed + " bytes sent for " + bytes);
+
+		//a client not offering it connects uncompressed
+		RUDPClient plain = new RUDPClient(InetAddress.getByName("localhost"), 1122);
+		plain.connect();
+		assertFalse(plain.isCompressing());
+		plain.sendReliablePacket(sent.get(0));
+		await(2000, () -> messages.size() == sent.size() + 1);
+		assertArrayEquals(sent.get(0), messages.get(sent.size()));
+
+		plain.disconnect();
+		client.disconnect();
+		server.stop();
+	}
+
+	@Test
+	public void testBroadcast() throws IOException, InterruptedException{
+		DeliveryMode[] modes = {DeliveryMode.RELIABLE_ORDERED, DeliveryMode.UNRELIABLE};
+		RUDPServer server = new RUDPServer(1123);
+		server.setChannels(modes);
+		server.setCompression(true);
+		server.start();
+
+		//the last client compresses, the others get the same message uncompressed
+		RUDPClient[] clients = new RUDPClient[3];
+		List<List<String>> received = new ArrayList<>();
+		for(int i = 0; i < clients.length; i++){
+			List<String> messages = new ArrayList<>();
+			received.add(messages);
+			clients[i] = new RUDPClient(InetAddress.getByName("localhost"), 1123);
+			clients[i].setChannels(modes);
+			clients[i].setCompression(i == 2);
+			clients[i].setPacketHandler(new PacketHandler(){
+				@Override
+				public void onPacketReceived(int channel, ByteBuffer data, boolean reliable){
+					byte[] payload = new byte[data.remaining()];
+					data.get(payload);
+					synchronized(messages){
+						messages.add(channel + ":" + new String(payload, StandardCharsets.UTF_8));
+					}
+				}
+			});
+			clients[i].connect();
+		}
+		await(1000, () -> server.getConnectedClients().size() == clients.length);
+		//connect() returns once registered, so the connections are listed in order
+		RUDPClient first = server.getConnectedClients().get(0), last = server.getConnectedClients().get(2);
+		assertTrue(last.isCompressing());
+		server.addToGroup("red", first);
+		server.addToGroup("red", last);
+		assertEquals(2, server.getGroup("red").size());
+
+		String repeated = "all all all all all all all all all all all all all all all all";
+		for(int i = 0; i < 10; i++) server.broadcast(0, (repeated + i).getBytes(StandardCharsets.UTF_8));
+		server.sendToGroup("red", 1, "red".getBytes(StandardCharsets.UTF_8));
+		server.sendToGroup("blue", 1, "blue".getBytes(StandardCharsets.UTF_8));
+
+		await(2000, () -> received.stream().allMatch(messages -> messages.size() >= 10) && received.get(2).size() == 11);
+		for(int i = 0; i < clients.length; i++){
+			synchronized(received.get(i)){
+				List<String> messages = received.get(i);
+				assertEquals(i == 1 ? 10 : 11, messages.size());
+				for(int j = 0; j < 10; j++) assertEquals("0:" + repeated + j, messages.get(j));
+				if(i != 1) assertEquals("1:red", messages.get(10));
+			}
+		}
+		assertTrue(last.getMetrics().getBytesSent() < first.getMetrics().getBytesSent());
+
+		//disconnected connections leave their groups, empty groups go away
+		clients[0].disconnect();
+		await(2000, () -> server.getGroup("red").size() == 1);
+		assertEquals(1, server.getGroup("red").size());
+		server.addToGroup("blue", first);
+		assertTrue(server.getGroup("blue").isEmpty());
+		server.removeFromGroup("red", last);
+		assertTrue(server.getGroupNames().isEmpty());
+
+		for(RUDPClient client : clients) client.disconnect();
+		server.stop();
+	}
+
+	@Test
+	public void testCookieHandshake() throws IOException, InterruptedException{
+		RUDPServer server = new RUDPServer(1124);
+		server.start();
+		InetSocketAddress endpoint = new InetSocketAddress(InetAddress.getByName("localhost"), 1124);
+
+		try(DatagramSocket socket = new DatagramSocket()){
+			socket.setSoTimeout(2000);
+			byte[] handshake = new byte[RUDPConstants.HANDSHAKE_SIZE + RUDPConstants.HANDSHAKE_COOKIE_SIZE];
+			handshake[0] = RUDPConstants.PacketType.HANDSHAKE_START;
+			ByteBuffer.wrap(handshake).putInt(1, RUDPConstants.VERSION_MAJOR).putInt(5, RUDPConstants.VERSION_MINOR);
+			byte[] reply = new byte[64];
+			DatagramPacket received = new DatagramPacket(reply, reply.length);
+
+			//unpadded handshakes are ignored, the reply would be larger
+			socket.setSoTimeout(200);
+			socket.send(new DatagramPacket(handshake, RUDPConstants.HANDSHAKE_SIZE, endpoint));
+			assertThrows(SocketTimeoutException.class, () -> socket.receive(received));
+			socket.setSoTimeout(2000);
+
+			//handshakes without a cookie only get one back, nothing is kept and no thread started
+			int threads = Thread.activeCount();
+			for(int i = 0; i < 200; i++){
+				socket.send(new DatagramPacket(handshake, RUDPConstants.HANDSHAKE_MIN_SIZE, endpoint));
+				socket.receive(received);
+				assertEquals(RUDPConstants.PacketType.HANDSHAKE_COOKIE, reply[0]);
+				assertEquals(1 + RUDPConstants.HANDSHAKE_COOKIE_SIZE, received.getLength());
+			}
+			assertTrue(server.getConnectedClients().isEmpty());
+			assertTrue(Thread.activeCount() <= threads, "threads started: " + (Thread.activeCount() - threads));
+
+			//a tampered cookie is refused
+			System.arraycopy(reply, 1, handshake, RUDPConstants.HANDSHAKE_SIZE, RUDPConstants.HANDSHAKE_COOKIE_SIZE);
+			handshake[handshake.length - 1]++;
+			socket.send(new DatagramPacket(handshake, handshake.length, endpoint));
+			socket.receive(received);
+			assertEquals(RUDPConstants.PacketType.HANDSHAKE_COOKIE, reply[0]);
+			assertTrue(server.getConnectedClients().isEmpty());
+
+			//the echoed one connects, and the same handshake again keeps the connection
+			System.arraycopy(reply, 1, handshake, RUDPConstants.HANDSHAKE_SIZE, RUDPConstants.HANDSHAKE_COOKIE_SIZE);
+			for(int i = 0; i < 2; i++){
+				socket.send(new DatagramPacket(handshake, handshake.length, endpoint));
+				do{
+					socket.receive(received);
+				}while(reply[0] != RUDPConstants.PacketType.HANDSHAKE_OK);
+			}
+			assertEquals(1, server.getConnectedClients().size());
+			assertTrue(server.getConnectedClients().get(0).isConnected());
+		}
+		server.stop();
+	}
+
+	@Test
+	public void testMalformedPacket() throws IOException, InterruptedException{
+		RUDPServer server = new RUDPServer(1129);
+		List<byte[]> messages = new ArrayList<>();
+		server.setPacketHandler(new OrderedPacketHandler(){
+			@Override
+			public void handlePacket(byte[] data){
+				synchronized(messages){
+					messages.add(data);
+				}
+			}
+		});
+		server.start();
+		InetSocketAddress endpoint = new InetSocketAddress(InetAddress.getByName("localhost"), 1129);
+
+		try(DatagramSocket socket = new DatagramSocket()){
+			socket.setSoTimeout(2000);
+			byte[] handshake = new byte[RUDPConstants.HANDSHAKE_SIZE + RUDPConstants.HANDSHAKE_COOKIE_SIZE];
+			handshake[0] = RUDPConstants.PacketType.HANDSHAKE_START;
+			ByteBuffer.wrap(handshake).putInt(1, RUDPConstants.VERSION_MAJOR).putInt(5, RUDPConstants.VERSION_MINOR);
+			byte[] reply = new byte[64];
+			DatagramPacket received = new DatagramPacket(reply, reply.length);
+			socket.send(new DatagramPacket(handshake, RUDPConstants.HANDSHAKE_MIN_SIZE, endpoint));
+			socket.receive(received);
+			System.arraycopy(reply, 1, handshake, RUDPConstants.HANDSHAKE_SIZE, RUDPConstants.HANDSHAKE_COOKIE_SIZE);
+			socket.send(new DatagramPacket(handshake, handshake.length, endpoint));
+			do{
+				socket.receive(received);
+			}while(reply[0] != RUDPConstants.PacketType.HANDSHAKE_OK);
+
+			//stats without their payload, then a message: the connection still handles it
+			byte[] stats = new byte[RUDPConstants.PACKET_HEADER_SIZE];
+			stats[0] = RUDPConstants.PacketType.PACKETSSTATS_RESPONSE;
+			socket.send(new DatagramPacket(stats, stats.length, endpoint));
+			byte[] message = new byte[RUDPConstants.PACKET_HEADER_SIZE + RUDPConstants.MESSAGE_HEADER_SIZE + 1];
+			ByteBuffer.wrap(message).put(0, RUDPConstants.PacketType.RELIABLE).putShort(3, (short) -1).put(message.length - 1, (byte) 42);
+			socket.send(new DatagramPacket(message, message.length, endpoint));
+
+			await(2000, () -> messages.size() == 1);
+			synchronized(messages){
+				assertEquals(1, messages.size());
+				assertArrayEquals(new byte[]{42}, messages.get(0));
+			}
+		}
+		server.stop();
+	}
+
+	@Test
+	public void testKeepAlive() throws IOException, InterruptedException{
+		RUDPServer server = new RUDPServer(1125);
+		server.setChannels(DeliveryMode.UNRELIABLE);
+		server.start();
+
+		RUDPClient client = new RUDPClient(InetAddress.getByName("localhost"), 1125);
+		client.setChannels(DeliveryMode.UNRELIABLE);
+		client.connect();
+		await(1000, () -> server.getConnectedClients().size() == 1);
+		RUDPClient connection = server.getConnectedClients().get(0);
+		//past the MTU probes of both sides and their acks
+		Thread.sleep(200);
+
+		//sending more often than the keep-alive interval, nothing but the messages goes out
+		long before = client.getMetrics().getPacketsSent();
+		for(int i = 0; i < 25; i++){
+			client.send(0, new byte[10]);
+			Thread.sleep(100);
+		}
+		assertEquals(before + 25, client.getMetrics().getPacketsSent());
+
+		//idle, about one keep-alive per interval keeps the connection up and the latency measured
+		before = client.getMetrics().getPacketsSent();
+		Thread.sleep(2500);
+		long keepAlives = client.getMetrics().getPacketsSent() - before;
+		assertTrue(keepAlives >= 1 && keepAlives <= 3, "keep-alives: " + keepAlives);
+		assertTrue(client.isConnected());
+		assertTrue(connection.isConnected());
+		assertTrue(connection.getLatency() < 100);
+
+		client.disconnect();
+		server.stop();
+	}
+}
@@ -0,0 +1,43 @@
+
+import io.anuke.rudp.utils.RttEstimator;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RttEstimatorTest {
+
+	@Test
+	public void testRfc6298(){
+		RttEstimator rtt = new RttEstimator(1000, 10, 5000, 1);
+		assertEquals(1000, rtt.getRto());
+		assertFalse(rtt.hasSamples());
+
+		//first sample: SRTT = R, RTTVAR = R / 2, RTO = SRTT + 4 * RTTVAR
+		rtt.sample(100);
+		assertEquals(100, rtt.getSrtt());
+		assertEquals(50, rtt.getRttVar());
+		assertEquals(300, rtt.getRto());
+
+		//RTTVAR = 3/4 * 50 + 1/4 * |100 - 180|, SRTT = 7/8 * 100 + 1/8 * 180
+		rtt.sample(180);
+		assertEquals(57, rtt.getRttVar());
+		assertEquals(110, rtt.getSrtt());
+		assertEquals(110 + 4 * 57, rtt.getRto());
+
+		//a stable path converges towards the minimum
+		for(int i = 0; i < 100; i++) rtt.sample(2);
+		assertEquals(10, rtt.getRto());
+	}
+
+	@Test
+	public void testBackoff(){
+		RttEstimator rtt = new RttEstimator(1000, 10, 5000, 1);
+		rtt.sample(100);
+		assertEquals(300, rtt.getRto(0));
+		assertEquals(600, rtt.getRto(1));
+		assertEquals(2400, rtt.getRto(3));
+		assertEquals(5000, rtt.getRto(5));
+		assertEquals(5000, rtt.getRto(100));
+	}
+}
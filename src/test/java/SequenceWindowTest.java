@@ -0,0 +1,62 @@
+
+import io.anuke.rudp.utils.SequenceWindow;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SequenceWindowTest {
+
+	@Test
+	public void testDuplicates(){
+		SequenceWindow window = new SequenceWindow(64);
+		assertTrue(window.add((short) 10));
+		assertFalse(window.add((short) 10));
+
+		//out of order, then duplicates of each
+		assertTrue(window.add((short) 13));
+		assertTrue(window.add((short) 11));
+		assertFalse(window.add((short) 11));
+		assertFalse(window.add((short) 13));
+		assertTrue(window.add((short) 12));
+		assertEquals(13, window.getHighest());
+
+		//bit n is seq (highest - n - 1)
+		assertEquals(0b111, window.getAckBits());
+		//or around any seq, seqs never received or outside the window are unset
+		assertEquals(0b11, window.getAckBits((short) 12));
+		assertEquals(0b11110, window.getAckBits((short) 15));
+
+		//too old to tell, treated as a duplicate
+		assertTrue(window.add((short) 100));
+		assertFalse(window.add((short) 30));
+		assertTrue(window.add((short) 40));
+		assertFalse(window.contains((short) 13));
+	}
+
+	@Test
+	public void testWrapAround(){
+		SequenceWindow window = new SequenceWindow(1024);
+		short seq = (short) 65000;
+		//every seq once through two wraps of the sequence space, resent seqs are always caught
+		for(int i = 0; i < 140_000; i++){
+			assertTrue(window.add(seq), "fresh seq " + seq);
+			assertFalse(window.add(seq));
+			if(i >= 5) assertFalse(window.add((short) (seq - 5)));
+			seq++;
+		}
+
+		//seq 32767 to -32768 is one step forward
+		window.clear();
+		assertTrue(window.add(Short.MAX_VALUE));
+		assertTrue(window.add(Short.MIN_VALUE));
+		assertEquals(Short.MIN_VALUE, window.getHighest());
+		assertEquals(1, window.getAckBits());
+		assertFalse(window.add(Short.MAX_VALUE));
+
+		//a jump past the window forgets everything before it
+		assertTrue(window.add((short) (Short.MIN_VALUE + 2000)));
+		assertEquals(0, window.getAckBits());
+		assertFalse(window.contains(Short.MIN_VALUE));
+	}
+}
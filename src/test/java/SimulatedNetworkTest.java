@@ -0,0 +1,344 @@
+
+import io.anuke.rudp.RUDPConstants;
+import io.anuke.rudp.RUDPConstants.PacketType;
+import io.anuke.rudp.handlers.OrderedPacketHandler;
+import io.anuke.rudp.handlers.PacketHandler;
+import io.anuke.rudp.rudp.ConnectionState;
+import io.anuke.rudp.rudp.RUDPClient;
+import io.anuke.rudp.rudp.RUDPServer;
+import io.anuke.rudp.transport.NetworkConditions;
+import io.anuke.rudp.transport.SimulatedNetwork;
+import io.anuke.rudp.transport.Transport;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SimulatedNetworkTest {
+
+	/**Drops the first datagrams of one packet type sent through a transport.*/
+	static class DroppingTransport implements Transport {
+		final Transport transport;
+		final byte type;
+		final AtomicInteger drops;
+
+		DroppingTransport(Transport transport, byte type, int drops){
+			this.transport = transport;
+			this.type = type;
+			this.drops = new AtomicInteger(drops);
+		}
+
+		@Override
+		public void send(byte[] data, int offset, int length, InetSocketAddress endpoint) throws IOException{
+			if(length > 0 && data[offset] == type && drops.getAndDecrement() > 0) return;
+			transport.send(data, offset, length, endpoint);
+		}
+
+		@Override
+		public void send(ByteBuffer data, InetSocketAddress endpoint) throws IOException{
+			if(data.hasRemaining() && data.get(data.position()) == type && drops.getAndDecrement() > 0) return;
+			transport.send(data, endpoint);
+		}
+
+		@Override
+		public void receive(PacketReceiver receiver) throws IOException{
+			transport.receive(receiver);
+		}
+
+		@Override
+		public void setTimeout(int timeout) throws IOException{
+			transport.setTimeout(timeout);
+		}
+
+		@Override
+		public int getLocalPort(){
+			return transport.getLocalPort();
+		}
+
+		@Override
+		public boolean isClosed(){
+			return transport.isClosed();
+		}
+
+		@Override
+		public void close(){
+			transport.close();
+		}
+	}
+
+	static List<Integer> exchange(long seed) throws IOException{
+		SimulatedNetwork network = new SimulatedNetwork(seed, new NetworkConditions().loss(0.3).duplication(0.1).latency(2).jitter(5));
+		Transport sender = network.open(0), receiver = network.open(0);
+		InetSocketAddress endpoint = new InetSocketAddress(InetAddress.getLoopbackAddress(), receiver.getLocalPort());
+		for(int i = 0; i < 200; i++) sender.send(new byte[]{(byte) i}, 0, 1, endpoint);
+
+		List<Integer> received = new ArrayList<>();
+		receiver.setTimeout(200);
+		try{
+			while(true) receiver.receive((data, address, port) -> received.add(data.get(0) & 0xFF));
+		}catch(SocketTimeoutException e){
+			//everything arrived
+		}
+		network.close();
+		Collections.sort(received);
+		return received;
+	}
+
+	/**Holds back the snapshot with one id until the snapshot with another id has been sent.*/
+	static class DelayingTransport extends DroppingTransport {
+		final int held, release;
+		byte[] datagram;
+
+		DelayingTransport(Transport transport, int held, int release){
+			super(transport, PacketType.SNAPSHOT, 0);
+			this.held = held;
+			this.release = release;
+		}
+
+		@Override
+		public void send(byte[] data, int offset, int length, InetSocketAddress endpoint) throws IOException{
+			send(ByteBuffer.wrap(data, offset, length), endpoint);
+		}
+
+		@Override
+		public synchronized void send(ByteBuffer data, InetSocketAddress endpoint) throws IOException{
+			int start = data.position();
+			int id = data.remaining() >= RUDPConstants.PACKET_HEADER_SIZE + 2 && data.get(start) == type
+				? data.getShort(start + RUDPConstants.PACKET_HEADER_SIZE) & 0xFFFF : -1;
+			if(id == held){
+				datagram = new byte[data.remaining()];
+				data.get(datagram);
+				return;
+			}
+			super.send(data, endpoint);
+			if(id == release && datagram != null) super.send(ByteBuffer.wrap(datagram), endpoint);
+		}
+	}
+
+	@Test
+	public void testSeededDecisions() throws IOException{
+		List<Integer> first = exchange(42);
+		assertEquals(first, exchange(42));
+		assertNotEquals(first, exchange(43));
+
+		//some lost, some duplicated
+		assertTrue(first.stream().distinct().count() < 200);
+		assertTrue(first.stream().distinct().count() < first.size());
+	}
+
+	@Test
+	public void testReliableOverBadNetwork() throws IOException, InterruptedException{
+		SimulatedNetwork network = new SimulatedNetwork(7);
+		RUDPServer server = new RUDPServer(7000, network);
+		List<Integer> received = new ArrayList<>();
+		server.setPacketHandler(new OrderedPacketHandler(){
+			@Override
+			public void handlePacket(byte[] data){
+				synchronized(received){
+					received.add(data[0] & 0xFF);
+				}
+			}
+		});
+		server.start();
+
+		RUDPClient client = new RUDPClient(InetAddress.getLoopbackAddress(), 7000, network);
+		client.connect();
+		//impaired once connected, testLossyHandshake covers the handshake
+		network.getConditions().loss(0.2).latency(5).jitter(10).duplication(0.05).reordering(0.05, 30);
+
+		for(int i = 0; i < 200; i++) client.sendReliablePacket(new byte[]{(byte) i});
+
+		long end = System.currentTimeMillis() + 20_000;
+		while(System.currentTimeMillis() < end){
+			synchronized(received){
+				if(received.size() >= 200) break;
+			}
+			Thread.sleep(10);
+		}
+		synchronized(received){
+			assertEquals(200, received.size());
+			for(int i = 0; i < 200; i++) assertEquals(i, (int) received.get(i));
+		}
+		assertTrue(client.getMetrics().getRetransmissions() > 0);
+
+		network.getConditions().loss(0);
+		client.disconnect();
+		server.stop();
+		network.close();
+	}
+
+	@Test
+	public void testLossyHandshake() throws IOException, InterruptedException{
+		SimulatedNetwork network = new SimulatedNetwork(13);
+		network.getConditions().loss(0.5).latency(5);
+		RUDPServer server = new RUDPServer(7004, network);
+		server.start();
+
+		//the start and the cookie echo are sent again until answered, duplicates reach the same connection
+		for(int i = 0; i < 5; i++){
+			RUDPClient client = new RUDPClient(InetAddress.getLoopbackAddress(), 7004, network);
+			client.connect();
+			assertEquals(ConnectionState.STATE_CONNECTED, client.state);
+			assertEquals(1, server.getConnectedClients().size());
+			//the disconnect is not resent
+			network.getConditions().loss(0);
+			client.disconnect();
+			long end = System.currentTimeMillis() + 2000;
+			while(!server.getConnectedClients().isEmpty() && System.currentTimeMillis() < end) Thread.sleep(5);
+			network.getConditions().loss(0.5);
+		}
+
+		server.stop();
+		network.close();
+	}
+
+	@Test
+	public void testSnapshotsOverBadNetwork() throws IOException, InterruptedException{
+		SimulatedNetwork network = new SimulatedNetwork(11);
+		RUDPServer server = new RUDPServer(7001, network);
+		server.start();
+
+		RUDPClient client = new RUDPClient(InetAddress.getLoopbackAddress(), 7001, network);
+		List<byte[]> received = new ArrayList<>();
+		client.setPacketHandler(new PacketHandler(){
+			@Override
+			public void onSnapshotReceived(ByteBuffer snapshot){
+				byte[] copy = new byte[snapshot.remaining()];
+				snapshot.get(copy);
+				synchronized(received){
+					received.add(copy);
+				}
+			}
+		});
+		client.connect();
+		network.getConditions().loss(0.2).latency(5).jitter(10).reordering(0.1, 20);
+		long end = System.currentTimeMillis() + 2000;
+		while(server.getConnectedClients().isEmpty() && System.currentTimeMillis() < end) Thread.sleep(5);
+		RUDPClient connection = server.getConnectedClients().get(0);
+		//past the MTU probes
+		Thread.sleep(200);
+
+		//a world of 250 entities, 4 bytes each, a few of them moving every tick
+		byte[] world = new byte[1000];
+		Random random = new Random(3);
+		random.nextBytes(world);
+		int full = 0;
+		long before = connection.getMetrics().getBytesSent();
+		for(int tick = 0; tick < 200; tick++){
+			for(int i = 0; i < 5; i++) world[random.nextInt(250) * 4]++;
+			world[0] = (byte) tick;
+			connection.sendSnapshot(world);
+			full += world.length;
+			Thread.sleep(10);
+		}
+		network.getConditions().loss(0);
+		connection.sendSnapshot(world);
+		end = System.currentTimeMillis() + 5000;
+		while(System.currentTimeMillis() < end){
+			synchronized(received){
+				if(!received.isEmpty() && Arrays.equals(world, received.get(received.size() - 1))) break;
+			}
+			Thread.sleep(10);
+		}
+
+		synchronized(received){
+			assertArrayEquals(world, received.get(received.size() - 1));
+			//lost or stale once reordered by the jitter
+			assertTrue(received.size() > 50, received.size() + " snapshots received");
+			//only ever newer ones, decoded correctly against their baseline
+			for(int i = 1; i < received.size() - 1; i++) assertTrue((received.get(i)[0] & 0xFF) > (received.get(i - 1)[0] & 0xFF));
+		}
+		long sent = connection.getMetrics().getBytesSent() - before;
+		assertTrue(sent < full / 8, sent + " bytes sent for " + full);
+
+		client.disconnect();
+		server.stop();
+		network.close();
+	}
+
+	@Test
+	public void testLostMtuProbes() throws IOException, InterruptedException{
+		SimulatedNetwork network = new SimulatedNetwork(3);
+		RUDPServer server = new RUDPServer(7002, network);
+		server.start();
+
+		//the whole first round of probes is lost, the retries raise the MTU
+		int[] sizes = RUDPConstants.MTU_PROBE_SIZES;
+		RUDPClient client = new RUDPClient(InetAddress.getLoopbackAddress(), 7002,
+			(port, reusePort) -> new DroppingTransport(network.open(port, reusePort), PacketType.MTU_PROBE, sizes.length));
+		client.connect();
+		assertEquals(RUDPConstants.MTU_MIN, client.getMTU());
+
+		long end = System.currentTimeMillis() + 5000;
+		while(client.getMTU() < sizes[sizes.length - 1] && System.currentTimeMillis() < end) Thread.sleep(10);
+		assertEquals(sizes[sizes.length - 1], client.getMTU());
+
+		client.disconnect();
+		server.stop();
+		network.close();
+	}
+
+	@Test
+	public void testSnapshotDelayedByWholeHistory() throws IOException, InterruptedException{
+		SimulatedNetwork network = new SimulatedNetwork(5);
+		//the first snapshot, encoded against nothing, arrives right after the one kept in the same slot
+		int held = 0, release = held + RUDPConstants.SNAPSHOT_HISTORY;
+		RUDPServer server = new RUDPServer(7003, (port, reusePort) -> new DelayingTransport(network.open(port, reusePort), held, release));
+		server.start();
+
+		RUDPClient client = new RUDPClient(InetAddress.getLoopbackAddress(), 7003, network);
+		List<Integer> received = new ArrayList<>();
+		client.setPacketHandler(new PacketHandler(){
+			@Override
+			public void onSnapshotReceived(ByteBuffer snapshot){
+				synchronized(received){
+					received.add(snapshot.get(0) & 0xFF);
+				}
+			}
+		});
+		client.connect();
+		long end = System.currentTimeMillis() + 2000;
+		while(server.getConnectedClients().isEmpty() && System.currentTimeMillis() < end) Thread.sleep(5);
+		RUDPClient connection = server.getConnectedClients().get(0);
+		Thread.sleep(200);
+
+		//slow enough for each snapshot to be acked before the next, always encoded against the previous one
+		byte[] world = new byte[100];
+		int ticks = 80;
+		for(int tick = 0; tick < ticks; tick++){
+			world[0] = (byte) tick;
+			world[1 + tick % 99]++;
+			connection.sendSnapshot(world);
+			Thread.sleep(20);
+		}
+		end = System.currentTimeMillis() + 2000;
+		while(System.currentTimeMillis() < end){
+			synchronized(received){
+				if(!received.isEmpty() && received.get(received.size() - 1) == ticks - 1) break;
+			}
+			Thread.sleep(10);
+		}
+
+		synchronized(received){
+			//every one but the stale snapshot, none of those after it lost their baseline
+			assertEquals(ticks - 1, received.size(), received.toString());
+			assertFalse(received.contains(held), received.toString());
+		}
+
+		client.disconnect();
+		server.stop();
+		network.close();
+	}
+}
@@ -0,0 +1,103 @@
+
+import io.anuke.rudp.utils.TimerWheel;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TimerWheelTest {
+
+	static class CountingTask extends TimerWheel.Task {
+		final CountDownLatch latch;
+		final AtomicInteger runs = new AtomicInteger();
+		volatile long ranAt;
+
+		CountingTask(CountDownLatch latch) {
+			this.latch = latch;
+		}
+
+		@Override
+		public void run() {
+			ranAt = System.nanoTime();
+			runs.incrementAndGet();
+			latch.countDown();
+		}
+	}
+
+	@Test
+	public void testDeadlines() throws InterruptedException{
+		//4 buckets of 5ms, so the 50ms task needs several rounds around the wheel
+		TimerWheel wheel = new TimerWheel("test timer", 5, 4);
+		wheel.start();
+
+		CountDownLatch latch = new CountDownLatch(2);
+		CountingTask shortTask = new CountingTask(latch), longTask = new CountingTask(latch);
+		long start = System.nanoTime();
+		wheel.schedule(longTask, 50);
+		wheel.schedule(shortTask, 5);
+
+		assertTrue(latch.await(1, TimeUnit.SECONDS));
+		assertTrue(shortTask.ranAt < longTask.ranAt);
+		assertTrue(longTask.ranAt - start >= TimeUnit.MILLISECONDS.toNanos(50));
+		wheel.stop();
+	}
+
+	@Test
+	public void testCancelAndReschedule() throws InterruptedException{
+		TimerWheel wheel = new TimerWheel("test timer", 5, 8);
+		wheel.start();
+
+		CountDownLatch latch = new CountDownLatch(3);
+		CountingTask cancelled = new CountingTask(new CountDownLatch(1));
+		CountingTask repeating = new CountingTask(latch) {
+			@Override
+			public void run() {
+				super.run();
+				if(runs.get() < 3) wheel.schedule(this, 5);
+			}
+		};
+		wheel.schedule(cancelled, 10);
+		cancelled.cancel();
+		wheel.schedule(repeating, 0);
+
+		assertTrue(latch.await(1, TimeUnit.SECONDS));
+		Thread.sleep(50);
+		assertEquals(3, repeating.runs.get());
+		assertEquals(0, cancelled.runs.get());
+		wheel.stop();
+	}
+
+	@Test
+	public void testRescheduleLinked() throws InterruptedException{
+		TimerWheel wheel = new TimerWheel("test timer", 5, 8);
+		wheel.start();
+
+		//both in the same bucket, the moved task linked in front of the other one
+		CountDownLatch latch = new CountDownLatch(3);
+		CountingTask other = new CountingTask(latch), moved = new CountingTask(latch), twice = new CountingTask(latch);
+		wheel.schedule(other, 20);
+		wheel.schedule(moved, 20);
+		Thread.sleep(10);
+
+		//cancelled while still in its bucket, then scheduled again for later
+		moved.cancel();
+		long rescheduled = System.nanoTime();
+		wheel.schedule(moved, 30);
+		//scheduled again before its first deadline, only the second one counts
+		wheel.schedule(twice, 100);
+		wheel.schedule(twice, 5);
+
+		assertTrue(latch.await(1, TimeUnit.SECONDS));
+		Thread.sleep(150);
+		assertEquals(1, other.runs.get());
+		assertEquals(1, moved.runs.get());
+		assertEquals(1, twice.runs.get());
+		assertTrue(moved.ranAt - rescheduled >= TimeUnit.MILLISECONDS.toNanos(30));
+		assertTrue(twice.ranAt - rescheduled < TimeUnit.MILLISECONDS.toNanos(80));
+		wheel.stop();
+	}
+}